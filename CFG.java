@@ -0,0 +1,350 @@
+// This is supporting software for CS322 Compilers and Language Design II
+// Copyright (c) Portland State University
+//---------------------------------------------------------------------------
+// For CS322 W'16 (J. Li).
+//
+
+// Control-flow graph of an IR1 function.
+//
+// The code is split into basic blocks: a block starts at the first
+// instruction, at every LabelDec, and after every CJump, Jump and
+// Return. Block b holds code[start[b]] .. code[start[b+1]-1]; block 0
+// is the entry. An empty function has one empty block.
+//
+// Everything is kept in int arrays indexed by block id:
+//
+// - edges, in compressed form: the successors of b are
+//   succ[succStart[b]] .. succ[succStart[b+1]-1] (a CJump's target,
+//   then its fall-through), and likewise pred/predStart;
+// - rpo, the reachable blocks in reverse post-order, and rpoNum,
+//   each block's position in it (-1 if unreachable);
+// - idom, the immediate dominator (-1 for the entry and unreachable
+//   blocks);
+// - ipdom, the immediate post-dominator, where EXIT (= the block
+//   count) stands for a virtual exit that every Return, and falling
+//   off the end, leads to (-1 for EXIT itself, and for blocks that
+//   cannot reach it);
+// - the loop nesting forest: loop l has header loopHeader[l] and
+//   enclosing loop loopParent[l] (-1 if outermost); loopOf[b] is the
+//   innermost loop holding b (-1 if none), and loopDepth(b) its
+//   nesting depth.
+//
+// Dominators are found with the Cooper-Harvey-Kennedy iteration over
+// the reverse post-order, which converges in two or three passes on
+// the CFGs IR1 code has. Loops are the natural loops of back edges
+// (edges to a dominating block); a cycle entered other than through
+// one dominating header (irreducible flow) is not a loop. No step
+// recurses, so large functions cannot overflow the stack.
+//
+import java.util.*;
+import ir.*;
+
+class CFG {
+  final IR1.Func func;
+  final int size;			// number of blocks
+  final int EXIT;			// the virtual exit (== size)
+  final int[] start;			// first instruction of each block, then code.length
+  final int[] blockOf;			// block of each instruction
+  final int[] succStart, succ;
+  final int[] predStart, pred;
+  final int[] rpo, rpoNum;
+  final int[] idom, ipdom;
+  int[] loopHeader, loopParent;
+  final int[] loopOf;
+  int loops;				// number of loops
+
+  CFG(IR1.Func f) throws CodeGen.GenException {
+    func = f;
+    IR1.Inst[] code = f.code;
+
+    // leaders
+    boolean[] leader = new boolean[code.length + 1];
+    leader[0] = true;
+    for (int i = 0; i < code.length; i++) {
+      IR1.Inst n = code[i];
+      if (n instanceof IR1.LabelDec)
+	leader[i] = true;
+      else if (n instanceof IR1.CJump || n instanceof IR1.Jump || n instanceof IR1.Return)
+	leader[i+1] = true;
+    }
+    int nb = 1;
+    for (int i = 1; i < code.length; i++)
+      if (leader[i])
+	nb++;
+    size = nb;
+    EXIT = nb;
+    start = new int[nb + 1];
+    blockOf = new int[code.length];
+    for (int i = 0, b = -1; i < code.length; i++) {
+      if (leader[i])
+	start[++b] = i;
+      blockOf[i] = b;
+    }
+    start[nb] = code.length;
+
+    // labels
+    Map<String,Integer> labels = new HashMap<String,Integer>();
+    for (int b = 0; b < nb; b++)
+      if (start[b] < code.length && code[start[b]] instanceof IR1.LabelDec)
+	labels.put(((IR1.LabelDec) code[start[b]]).lab.name, b);
+
+    // successors: a jump's target first, then the fall-through
+    int[] s = new int[2 * nb];
+    succStart = new int[nb + 1];
+    int ne = 0;
+    for (int b = 0; b < nb; b++) {
+      succStart[b] = ne;
+      IR1.Inst last = (start[b+1] > start[b]) ? code[start[b+1] - 1] : null;
+      if (last instanceof IR1.CJump)
+	s[ne++] = target(labels, ((IR1.CJump) last).lab);
+      else if (last instanceof IR1.Jump)
+	s[ne++] = target(labels, ((IR1.Jump) last).lab);
+      if (!(last instanceof IR1.Jump || last instanceof IR1.Return) && b + 1 < nb)
+	if (ne == succStart[b] || s[ne-1] != b + 1)
+	  s[ne++] = b + 1;
+    }
+    succStart[nb] = ne;
+    succ = Arrays.copyOf(s, ne);
+
+    // predecessors, by counting sort on the target
+    predStart = new int[nb + 1];
+    for (int e = 0; e < ne; e++)
+      predStart[succ[e] + 1]++;
+    for (int b = 0; b < nb; b++)
+      predStart[b+1] += predStart[b];
+    pred = new int[ne];
+    int[] fill = Arrays.copyOf(predStart, nb);
+    for (int b = 0; b < nb; b++)
+      for (int e = succStart[b]; e < succStart[b+1]; e++)
+	pred[fill[succ[e]]++] = b;
+
+    // dominators
+    rpo = reversePostOrder(nb, 0, succStart, succ);
+    rpoNum = numbering(nb, rpo);
+    idom = dominators(nb, rpo, rpoNum, predStart, pred);
+
+    // post-dominators: dominators of the reverse graph, rooted at EXIT
+    int[] rsStart = new int[nb + 2], rs = new int[ne + nb];
+    int[] rpStart = new int[nb + 2], rp = new int[ne + nb];
+    int k = 0;
+    for (int b = 0; b < nb; b++) {
+      rsStart[b] = k;
+      for (int e = predStart[b]; e < predStart[b+1]; e++)
+	rs[k++] = pred[e];
+    }
+    rsStart[nb] = k;
+    for (int b = 0; b < nb; b++)
+      if (exits(b))
+	rs[k++] = b;
+    rsStart[nb+1] = k;
+    k = 0;
+    for (int b = 0; b < nb; b++) {
+      rpStart[b] = k;
+      for (int e = succStart[b]; e < succStart[b+1]; e++)
+	rp[k++] = succ[e];
+      if (exits(b))
+	rp[k++] = EXIT;
+    }
+    rpStart[nb] = rpStart[nb+1] = k;
+    int[] prpo = reversePostOrder(nb + 1, EXIT, rsStart, rs);
+    ipdom = dominators(nb + 1, prpo, numbering(nb + 1, prpo), rpStart, rp);
+
+    loopOf = new int[nb];
+    findLoops();
+  }
+
+  static int target(Map<String,Integer> labels, IR1.Label lab) throws CodeGen.GenException {
+    Integer b = labels.get(lab.name);
+    if (b == null)
+      throw new CodeGen.GenException("Undefined label: " + lab.name);
+    return b;
+  }
+
+  // Does control leave the function at the end of block b?
+  boolean exits(int b) {
+    if (start[b+1] > start[b] && func.code[start[b+1] - 1] instanceof IR1.Return)
+      return true;
+    return b == size - 1 && !(start[b+1] > start[b] && func.code[start[b+1] - 1] instanceof IR1.Jump);
+  }
+
+  int succCount(int b) { return succStart[b+1] - succStart[b]; }
+  int predCount(int b) { return predStart[b+1] - predStart[b]; }
+
+  // Does a dominate b? (Walks b's dominator tree path)
+  boolean dominates(int a, int b) {
+    if (rpoNum[b] < 0)
+      return false;
+    while (b >= 0 && rpoNum[b] > rpoNum[a])
+      b = idom[b];
+    return b == a;
+  }
+
+  int loopDepth(int b) {
+    int d = 0;
+    for (int l = loopOf[b]; l >= 0; l = loopParent[l])
+      d++;
+    return d;
+  }
+
+  //----------------------------------------------------------------------------------
+  // Graph Algorithms
+  //------------------
+
+  // Nodes reachable from root in reverse post-order, by an explicit-
+  // stack DFS
+  //
+  static int[] reversePostOrder(int n, int root, int[] sStart, int[] s) {
+    int[] order = new int[n];
+    int[] stack = new int[n], next = new int[n];
+    boolean[] seen = new boolean[n];
+    int sp = 0, k = n;
+    stack[sp++] = root;
+    seen[root] = true;
+    next[root] = sStart[root];
+    while (sp > 0) {
+      int v = stack[sp-1];
+      if (next[v] < sStart[v+1]) {
+	int w = s[next[v]++];
+	if (!seen[w]) {
+	  seen[w] = true;
+	  next[w] = sStart[w];
+	  stack[sp++] = w;
+	}
+      } else {
+	order[--k] = v;
+	sp--;
+      }
+    }
+    return Arrays.copyOfRange(order, k, n);
+  }
+
+  static int[] numbering(int n, int[] order) {
+    int[] num = new int[n];
+    Arrays.fill(num, -1);
+    for (int i = 0; i < order.length; i++)
+      num[order[i]] = i;
+    return num;
+  }
+
+  // Immediate dominators (Cooper, Harvey and Kennedy, "A Simple, Fast
+  // Dominance Algorithm"): the root and unreachable nodes get -1
+  //
+  static int[] dominators(int n, int[] order, int[] num, int[] pStart, int[] p) {
+    int[] idom = new int[n];
+    Arrays.fill(idom, -1);
+    if (order.length == 0)
+      return idom;
+    int root = order[0];
+    idom[root] = root;
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int i = 1; i < order.length; i++) {
+	int b = order[i], d = -1;
+	for (int e = pStart[b]; e < pStart[b+1]; e++) {
+	  int q = p[e];
+	  if (idom[q] < 0)
+	    continue;			// unreachable, or not yet processed
+	  d = (d < 0) ? q : intersect(d, q, idom, num);
+	}
+	if (idom[b] != d) {
+	  idom[b] = d;
+	  changed = true;
+	}
+      }
+    }
+    idom[root] = -1;
+    return idom;
+  }
+
+  static int intersect(int a, int b, int[] idom, int[] num) {
+    while (a != b) {
+      while (num[a] > num[b])
+	a = idom[a];
+      while (num[b] > num[a])
+	b = idom[b];
+    }
+    return a;
+  }
+
+  // The loop nesting forest. Headers are visited in reverse RPO, so an
+  // inner loop is always found before the loops around it; each loop's
+  // blocks are those reaching one of its back edges backwards without
+  // passing the header. A block already in an (inner) loop stands for
+  // that whole loop, whose header's predecessors are walked next.
+  //
+  void findLoops() {
+    Arrays.fill(loopOf, -1);
+    int[] header = new int[4], parent = new int[4];
+    int[] work = new int[Math.max(1, pred.length)];
+    for (int i = rpo.length - 1; i >= 0; i--) {
+      int h = rpo[i], sp = 0;
+      for (int e = predStart[h]; e < predStart[h+1]; e++)
+	if (dominates(h, pred[e]))
+	  work[sp++] = pred[e];
+      if (sp == 0)
+	continue;
+      int l = loops++;
+      if (l == header.length) {
+	header = Arrays.copyOf(header, 2 * l);
+	parent = Arrays.copyOf(parent, 2 * l);
+      }
+      header[l] = h;
+      parent[l] = -1;
+      loopOf[h] = l;
+      while (sp > 0) {
+	int b = work[--sp];
+	if (b == h)
+	  continue;
+	int from;
+	if (loopOf[b] < 0) {
+	  loopOf[b] = l;
+	  from = b;
+	} else {
+	  int sub = outermost(loopOf[b], parent);
+	  if (sub == l)
+	    continue;
+	  parent[sub] = l;
+	  from = header[sub];
+	}
+	for (int e = predStart[from]; e < predStart[from+1]; e++) {
+	  int q = pred[e];
+	  if (rpoNum[q] < 0 || (from != b && dominates(from, q)))
+	    continue;			// unreachable, or inside the inner loop
+	  if (sp == work.length)
+	    work = Arrays.copyOf(work, 2 * sp);
+	  work[sp++] = q;
+	}
+      }
+    }
+    loopHeader = Arrays.copyOf(header, loops);
+    loopParent = Arrays.copyOf(parent, loops);
+  }
+
+  static int outermost(int l, int[] parent) {
+    while (parent[l] >= 0)
+      l = parent[l];
+    return l;
+  }
+
+  // One line per block: instructions, successors, idom, ipdom, loop
+  //
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (int b = 0; b < size; b++) {
+      sb.append("B").append(b).append(" [").append(start[b]).append(",").append(start[b+1])
+	.append(") ->");
+      for (int e = succStart[b]; e < succStart[b+1]; e++)
+	sb.append(" B").append(succ[e]);
+      if (exits(b))
+	sb.append(" exit");
+      sb.append("  idom ").append(idom[b] < 0 ? "-" : "B" + idom[b])
+	.append("  ipdom ").append(ipdom[b] < 0 ? "-" : ipdom[b] == EXIT ? "exit" : "B" + ipdom[b]);
+      if (loopOf[b] >= 0)
+	sb.append("  loop ").append(loopOf[b]).append(" (header B").append(loopHeader[loopOf[b]])
+	  .append(", depth ").append(loopDepth(b)).append(")");
+      sb.append("\n");
+    }
+    return sb.toString();
+  }
+}
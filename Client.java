@@ -0,0 +1,72 @@
+// This is supporting software for CS322 Compilers and Language Design II
+// Copyright (c) Portland State University
+//---------------------------------------------------------------------------
+// For CS322 W'16 (J. Li).
+//
+
+// Command-line client for the compile server (see Server.java).
+//
+// Usage: Client (socketpath | port) [-p] [-m | -l] [-c | -b] [-o file] file.ir
+//        Client (socketpath | port) stats
+//
+// Sends the arguments to the server, with file paths made absolute,
+// and copies the output to stdout (or, on an error, the message to
+// stderr with exit status 1). Kept apart from CodeGen so starting it
+// loads nothing but this class.
+//
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+
+class Client {
+  public static void main(String[] args) throws Exception {
+    if (args.length < 2) {
+      System.err.println("Usage: Client (socketpath | port) [options] file.ir");
+      System.exit(2);
+    }
+    StringBuilder req = new StringBuilder();
+    for (int i = 1; i < args.length; i++) {
+      String a = args[i];
+      if (!a.startsWith("-") && !(args.length == 2 && a.equals("stats")))
+	a = new File(a).getAbsolutePath();
+      req.append(a).append('\n');
+    }
+    req.append('\n');
+
+    SocketChannel ch = connect(args[0]);
+    try {
+      ch.write(ByteBuffer.wrap(req.toString().getBytes(StandardCharsets.UTF_8)));
+      InputStream in = new BufferedInputStream(Channels.newInputStream(ch), 1 << 16);
+      StringBuilder head = new StringBuilder();
+      int c;
+      while ((c = in.read()) != '\n') {
+	if (c < 0)
+	  throw new IOException("Connection closed by the server");
+	head.append((char) c);
+      }
+      boolean ok = head.toString().startsWith("OK ");
+      OutputStream out = ok ? new FileOutputStream(FileDescriptor.out)
+			    : new FileOutputStream(FileDescriptor.err);
+      byte[] buf = new byte[1 << 16];
+      int n;
+      while ((n = in.read(buf)) > 0)
+	out.write(buf, 0, n);
+      out.flush();
+      if (!ok) {
+	System.err.println();
+	System.exit(1);
+      }
+    } finally {
+      ch.close();
+    }
+  }
+
+  static SocketChannel connect(String addr) throws IOException {
+    if (addr.matches("[0-9]+"))
+      return SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+						      Integer.parseInt(addr)));
+    return SocketChannel.open(UnixDomainSocketAddress.of(addr));
+  }
+}
@@ -14,12 +14,21 @@
 
 
 
-// Naive X86-64 code generator for IR1. (A starter version)
+// X86-64 code generator for IR1. (A starter version)
 //
-// - No register allocation; registers are used only as scratch storage.
+// - Linear-scan register allocation (RegAlloc.java): params, vars and
+//   temps are kept in RBX and R12-R15, or, if not live across a call,
+//   in RCX, RSI, RDI, R8 and R9; the rest stay in their frame slots.
+//   With -n there is no register allocation, and registers are used
+//   only as scratch storage.
 //
 import java.io.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import ir.*;
 
 class CodeGen {
@@ -27,69 +36,880 @@ class CodeGen {
     public GenException(String msg) { super(msg); }
   }
 
+  // Usage: CodeGen [-p] [-n] [-m | -l] [-c | -b] [-k cachedir] [--stats[=file]] [--alloc]
+  //                [--jfr] [-o file] file.ir
+  //        CodeGen -d outdir [-j n] [-p] [-n] [-m | -l] [-c | -b] [-k cachedir]
+  //                [--stats[=file]] [--alloc] [--jfr]
+  //                (file.ir | @listfile) ...
+  //        CodeGen -s socketpath [-j n] [-k cachedir] [--jfr]
+  //        CodeGen -s port --tcp [-j n] [-k cachedir] [--jfr]
+  //
+  // Inputs may be IR1 text or the binary form written by -b. The -s
+  // form runs a compile server (see Server.java). --stats reports
+  // per-phase times and counts, --alloc adds allocated bytes (see
+  // Stats), and --jfr turns on the Flight Recorder events in Events.java.
+  //
   public static void main(String [] args) throws Exception {
-    if (args.length == 1) {
-      FileInputStream stream = new FileInputStream(args[0]);
-      IR1.Program p = new IR1Parser(stream).Program();
-      stream.close();
-      gen(p);
+    Options opts = Options.parse(args);
+    Events.enabled = opts.jfr;
+    int failures = 0;
+    if (opts.serve != null) {
+      new Server(opts).run();
+    } else if (opts.outDir != null && !opts.inputs.isEmpty() && opts.workers > 0) {
+      failures = batch(opts);
+    } else if (opts.inputs.size() == 1) {
+      compile(opts.inputs.get(0), opts.outFile, opts);
     } else {
       System.out.println("You must provide an input file name.");
     }
+    if (opts.cache != null)
+      opts.cache.report();
+    Stats.write(opts);
+    if (failures > 0)
+      System.exit(1);
+  }
+
+  // Command-line options
+  //
+  static class Options {
+    File outDir;			// -d: batch mode output directory
+    File outFile;			// -o: single-file output (default stdout)
+    int workers 			// -j: batch mode worker count (server: concurrency limit)
+      = Runtime.getRuntime().availableProcessors();
+    boolean parallel;			// -p: generate functions in parallel
+    boolean noRegAlloc;			// -n: keep every variable in its frame slot
+    boolean mapped;			// -m: lex straight from a memory-mapped file
+    boolean fastLexer;			// -l: use the hand-written IR1Lexer (also mapped)
+    boolean object;			// -c: write an ELF object file instead of assembly
+    boolean binary;			// -b: write the program in binary IR1 form (.irb)
+    FuncCache cache;			// -k: per-function assembly cache directory
+    String serve;			// -s: compile server socket path (or loopback port)
+    boolean tcp;			// --tcp: allow -s on a loopback port
+    boolean stats;			// --stats: report per-phase times and counts
+    File statsFile;			// --stats=file: as JSON to file (default stderr)
+    boolean alloc;			// --alloc: --stats, with bytes allocated per phase
+    boolean jfr;			// --jfr: create JFR events (see Events.java)
+    final List<Stats> statsLog 		// the reports for statsFile
+      = Collections.synchronizedList(new ArrayList<Stats>());
+    List<String> inputs = new ArrayList<String>();
+
+    static Options parse(String[] args) throws Exception {
+      Options o = new Options();
+      for (int i = 0; i < args.length; i++) {
+	if (args[i].equals("-d") && i+1 < args.length)
+	  o.outDir = new File(args[++i]);
+	else if (args[i].equals("-o") && i+1 < args.length)
+	  o.outFile = new File(args[++i]);
+	else if (args[i].equals("-j") && i+1 < args.length)
+	  o.workers = Integer.parseInt(args[++i]);
+	else if (args[i].equals("-p"))
+	  o.parallel = true;
+	else if (args[i].equals("-n"))
+	  o.noRegAlloc = true;
+	else if (args[i].equals("-m"))
+	  o.mapped = true;
+	else if (args[i].equals("-l"))
+	  o.fastLexer = true;
+	else if (args[i].equals("-c"))
+	  o.object = true;
+	else if (args[i].equals("-b"))
+	  o.binary = true;
+	else if (args[i].equals("-k") && i+1 < args.length)
+	  o.cache = new FuncCache(new File(args[++i]));
+	else if (args[i].equals("-s") && i+1 < args.length)
+	  o.serve = args[++i];
+	else if (args[i].equals("--tcp"))
+	  o.tcp = true;
+	else if (args[i].equals("--stats"))
+	  o.stats = true;
+	else if (args[i].equals("--jfr"))
+	  o.jfr = true;
+	else if (args[i].equals("--alloc"))
+	  o.stats = o.alloc = true;
+	else if (args[i].startsWith("--stats=")) {
+	  o.stats = true;
+	  o.statsFile = new File(args[i].substring(8));
+	}
+	else if (args[i].startsWith("@"))
+	  readList(args[i].substring(1), o.inputs);
+	else
+	  o.inputs.add(args[i]);
+      }
+      return o;
+    }
+
+    // The options that change the code generated for a function
+    String genKey() {
+      return noRegAlloc ? "asm -n" : "asm";
+    }
+  }
+
+  static void readList(String listFile, List<String> inputs) throws IOException {
+    BufferedReader r = new BufferedReader(new FileReader(listFile));
+    try {
+      String line;
+      while ((line = r.readLine()) != null)
+	if (line.trim().length() > 0)
+	  inputs.add(line.trim());
+    } finally {
+      r.close();
+    }
+  }
+
+  //----------------------------------------------------------------------------------
+  // Batch Mode
+  //------------
+
+  // Compiles every input in one JVM on a pool of n workers (default:
+  // one per core), writing outdir/<name>.s (or <name>.o with -c,
+  // <name>.irb with -b) for each file.ir. A list file holds one input
+  // path per line. Two inputs with the same name (say a/foo.ir and
+  // b/foo.ir) would write the same output, so that fails up front.
+  // A failed compile's partial output is deleted; returns the number
+  // of failures.
+  //
+  static int batch(final Options opts) throws Exception {
+    Map<File,String> outs = new LinkedHashMap<File,String>();
+    for (String in: opts.inputs) {
+      File out = new File(opts.outDir, new File(in).getName().replaceFirst("\\.ir$", "") 
+			  + (opts.binary ? ".irb" : opts.object ? ".o" : ".s"));
+      String prev = outs.put(out, in);
+      if (prev != null)
+	throw new GenException("Inputs " + prev + " and " + in + " both compile to " + out);
+    }
+    opts.outDir.mkdirs();
+
+    long start = System.nanoTime();
+    ExecutorService pool = Executors.newFixedThreadPool(opts.workers);
+    List<Future<?>> jobs = new ArrayList<Future<?>>();
+    for (Map.Entry<File,String> job: outs.entrySet()) {
+      final File out = job.getKey();
+      final String in = job.getValue();
+      jobs.add(pool.submit(new Callable<Void>() {
+	public Void call() throws Exception {
+	  try {
+	    compile(in, out, opts);
+	  } catch (Exception | Error e) {	// (lexical errors are TokenMgrErrors)
+	    out.delete();
+	    throw e;
+	  }
+	  return null;
+	}
+      }));
+    }
+    pool.shutdown();
+    int failures = 0;
+    for (int i = 0; i < jobs.size(); i++) {
+      try {
+	jobs.get(i).get();
+      } catch (ExecutionException e) {
+	failures++;
+	System.err.println(opts.inputs.get(i) + ": " + e.getCause());
+      }
+    }
+    double secs = (System.nanoTime() - start) / 1e9;
+    int n = opts.inputs.size();
+    System.out.printf("%d files, %d failures, %.3f s wall, %.1f files/sec (%d workers)\n",
+		      n, failures, secs, n / secs, opts.workers);
+    return failures;
+  }
+
+  // Parse one file and generate its assembly (or object code) into the
+  // given output file (stdout if null).
+  //
+  static void compile(String in, File out, Options opts) throws Exception {
+    WritableByteChannel sink = (out == null) 
+      ? Channels.newChannel(new FileOutputStream(FileDescriptor.out))
+      : new FileOutputStream(out).getChannel();
+    try {
+      compile(in, sink, opts);
+    } finally {
+      if (out != null)
+	sink.close();
+    }
+  }
+
+  // Same, into any channel (left open)
+  //
+  static void compile(String in, WritableByteChannel sink, Options opts) throws Exception {
+    Stats st = opts.stats ? new Stats(in, opts.alloc) : null;
+    IR1.Program p = parse(in, opts, st);
+    if (opts.binary) {
+      OutputStream os = new BufferedOutputStream(Channels.newOutputStream(sink), 1 << 16);
+      IR1Binary.write(p, os);
+      os.flush();
+      if (st != null) st.lap(Stats.OUTPUT);
+    } else {
+      X86.Emitter e = opts.object ? new Elf.ObjEmitter(sink) : new X86.Emitter(sink);
+      Context c = new Context(e, opts);
+      c.stats = st;
+      gen(p, c);
+      if (st != null) st.lap(Stats.GEN);
+      e.finish();
+      if (st != null) st.lap(Stats.OUTPUT);
+      if (st != null) st.generated(c);
+    }
+    if (st != null)
+      st.report(opts);
+  }
+
+  // Parse a file, timing the lexer's share when st is given
+  //
+  static IR1.Program parse(String in, Options opts, Stats st) throws Exception {
+    Events.Parse ev = Events.enabled ? new Events.Parse() : null;
+    if (ev != null) ev.begin();
+    IR1.Program p;
+    LexTimer lex = null;
+    if (IR1Binary.isBinary(in)) {
+      p = IR1Binary.read(in);
+    } else {
+      IR1ParserTokenManager tm;
+      FileInputStream stream = null;
+      if (opts.fastLexer)
+	tm = IR1Lexer.open(in);
+      else if (opts.mapped)
+	tm = new IR1ParserTokenManager(MappedCharStream.open(in));
+      else
+	tm = new IR1ParserTokenManager(new SimpleCharStream(stream = new FileInputStream(in), null, 1, 1));
+      if (st != null)
+	tm = lex = new LexTimer(tm, st.alloc);
+      try {
+	p = new IR1Parser(tm).Program();
+      } finally {
+	if (stream != null)
+	  stream.close();
+      }
+    }
+    if (st != null)
+      st.parsed(p, lex);
+    if (ev != null && ev.shouldCommit()) {
+      ev.input = in;
+      ev.funcs = p.funcs.length;
+      for (IR1.Func f: p.funcs)
+	ev.irInsts += f.code.length;
+      ev.commit();
+    }
+    return p;
+  }
+
+  //----------------------------------------------------------------------------------
+  // Function Cache
+  //----------------
+
+  // On-disk cache of each function's generated assembly, keyed by a
+  // SHA-256 of the function's IR1 text, the output-affecting options,
+  // and the code generator's own class files (so a rebuilt CodeGen
+  // never reuses old entries).
+  //
+  // A cached body numbers its string literals locally, in the order
+  // the function first uses them; splicing re-bases each _S<k>(%rip)
+  // operand onto the program's pool. An entry is the file
+  // dir/<key[0..1]>/<key> holding "IR1C <instCnt>\n" and the assembly.
+  //
+  static class FuncCache {
+    static final String MAGIC = "IR1C ";
+
+    final File dir;
+    final String fingerprint;		// hash of the code generator's classes
+    final AtomicInteger hits = new AtomicInteger();
+    final AtomicInteger misses = new AtomicInteger();
+    final AtomicInteger errors = new AtomicInteger();	// entries that could not be stored
+
+    FuncCache(File dir) throws Exception {
+      this.dir = dir;
+      this.fingerprint = classFingerprint();
+    }
+
+    void gen(IR1.Func f, Context c, X86.Emitter out) throws Exception {
+      Map<String,Integer> local = new LinkedHashMap<String,Integer>();
+      for (IR1.Inst i: f.code)
+	collectStrings(i, local);
+      String key = key(f, c.opts);
+      File entry = new File(new File(dir, key.substring(0, 2)), key);
+      byte[] data = load(entry);
+      if (data != null) {
+	hits.incrementAndGet();
+      } else {
+	misses.incrementAndGet();
+	X86.Emitter mem = X86.Emitter.toMemory();
+	FuncContext fc = new FuncContext(c, mem);
+	fc.strings = local;
+	CodeGen.gen(f, fc);
+	mem.flush();
+	ByteArrayOutputStream b = new ByteArrayOutputStream();
+	b.write((MAGIC + mem.instCnt + "\n").getBytes("US-ASCII"));
+	mem.mem.writeTo(b);
+	data = b.toByteArray();
+	store(entry, data);
+      }
+      splice(data, local.keySet().toArray(new String[0]), c.stringLiterals, out);
+    }
+
+    // Copy an entry's assembly to out, mapping local string label
+    // numbers to the program's; comment lines are copied as they are
+    void splice(byte[] data, String[] locals, Map<String,Integer> pool, X86.Emitter out) 
+      throws IOException {
+      int p = MAGIC.length(), cnt = 0;
+      while (data[p] != '\n')
+	cnt = cnt * 10 + (data[p++] - '0');
+      p++;
+      int from = p;
+      while (p < data.length) {
+	int eol = p;
+	while (eol < data.length && data[eol] != '\n')
+	  eol++;
+	if (!startsWith(data, p, "\t\t\t  #")) {
+	  for (int i = p; i + 2 < eol; i++) {
+	    if (data[i] == '_' && data[i+1] == 'S' && (data[i-1] == ' ' || data[i-1] == ',')
+		&& Character.isDigit(data[i+2])) {
+	      int j = i + 2, k = 0;
+	      while (j < eol && Character.isDigit(data[j]))
+		k = k * 10 + (data[j++] - '0');
+	      if (!startsWith(data, j, "(%rip)"))
+		continue;
+	      out.write(data, from, i + 2 - from);
+	      out.putInt(pool.get(locals[k]));
+	      from = j;
+	      i = j - 1;
+	    }
+	  }
+	}
+	p = eol + 1;
+      }
+      out.write(data, from, data.length - from);
+      out.instCnt += cnt;
+    }
+
+    static boolean startsWith(byte[] data, int at, String s) {
+      if (at + s.length() > data.length)
+	return false;
+      for (int i = 0; i < s.length(); i++)
+	if (data[at + i] != s.charAt(i))
+	  return false;
+      return true;
+    }
+
+    // The entry's contents, or null if missing or not an entry
+    byte[] load(File entry) {
+      try {
+	byte[] data = Files.readAllBytes(entry.toPath());
+	int p = MAGIC.length();
+	if (!startsWith(data, 0, MAGIC) || p >= data.length || !Character.isDigit(data[p]))
+	  return null;
+	while (p < data.length && Character.isDigit(data[p]))
+	  p++;
+	return (p < data.length && data[p] == '\n') ? data : null;
+      } catch (IOException e) {
+	return null;
+      }
+    }
+
+    // Write through a temp file and rename, so concurrent compiles
+    // never see a partial entry
+    void store(File entry, byte[] data) {
+      try {
+	File sub = entry.getParentFile();
+	sub.mkdirs();
+	File tmp = File.createTempFile(entry.getName(), ".tmp", sub);
+	Files.write(tmp.toPath(), data);
+	Files.move(tmp.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE,
+		   StandardCopyOption.REPLACE_EXISTING);
+      } catch (IOException e) {
+	errors.incrementAndGet();
+      }
+    }
+
+    String key(IR1.Func f, Options opts) throws Exception {
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+      md.update((fingerprint + "\n" + opts.genKey() + "\n").getBytes("UTF-8"));
+      md.update(f.toString().getBytes("UTF-8"));
+      return hex(md.digest());
+    }
+
+    // Hash of the class files CodeGen was loaded from (a directory of
+    // classes, with ir/, or a jar)
+    static String classFingerprint() throws Exception {
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+      File root = new File(CodeGen.class.getProtectionDomain().getCodeSource()
+			   .getLocation().toURI());
+      List<File> files = new ArrayList<File>();
+      if (root.isFile()) {
+	files.add(root);
+      } else {
+	for (File d: new File[] {root, new File(root, "ir")}) {
+	  File[] cls = d.listFiles((x, name) -> name.endsWith(".class"));
+	  if (cls != null)
+	    files.addAll(Arrays.asList(cls));
+	}
+	Collections.sort(files);
+      }
+      for (File f: files) {
+	md.update(f.getPath().getBytes("UTF-8"));
+	md.update(Files.readAllBytes(f.toPath()));
+      }
+      return hex(md.digest());
+    }
+
+    static String hex(byte[] b) {
+      StringBuilder sb = new StringBuilder();
+      for (byte x: b)
+	sb.append(String.format("%02x", x));
+      return sb.toString();
+    }
+
+    void report() {
+      int h = hits.get(), m = misses.get();
+      System.err.printf("cache: %d hits, %d misses (%.1f%% hit rate)%s\n", h, m, 
+			(h + m == 0) ? 0.0 : 100.0 * h / (h + m),
+			errors.get() == 0 ? "" : ", " + errors.get() + " entries not stored");
+    }
+  }
+
+  //----------------------------------------------------------------------------------
+  // Compile Statistics
+  //--------------------
+
+  // With --stats, each compile records the time spent lexing and
+  // parsing the program, and for each function the time spent
+  // assigning stack slots and registers, generating instructions and
+  // writing them out (flushing its emitter), with the function's IR
+  // instructions in, x86 instructions out, loads and stores to its
+  // stack frame, frame bytes, temps and string literals. It also
+  // counts, per IR opcode, the instructions and the x86 instructions
+  // generated for them, for each function's expansion ratio and the
+  // average per opcode.
+  // --alloc adds the bytes each phase allocated, from the JVM's
+  // per-thread allocation counter. (With -p, functions are generated on
+  // other threads, so the program's gen figure leaves them out.)
+  //
+  // The report goes to stderr as each input finishes, or with
+  // --stats=file to file, as a JSON array with one object per input
+  // (times in ns) -- or, if file ends in .csv, as CSV with one row per
+  // function. Functions taken from the -k cache are not generated, so
+  // they get no entry.
+  //
+  // (Events.java has the JFR events for the same phases.)
+  //
+  static class Stats extends Laps {
+    final String input;
+    IR1.Func[] order;			// the program's functions, in source order
+    int irInsts, x86Insts, strings;
+    final Map<IR1.Func,Func> funcs = new ConcurrentHashMap<IR1.Func,Func>();
+
+    Stats(String input, boolean alloc) { super(alloc); this.input = input; }
+
+    // IR opcodes, as counted by Func.op()
+    static final List<Class<?>> OPS = Arrays.<Class<?>>asList(
+      IR1.Binop.class, IR1.Unop.class, IR1.Move.class, IR1.Load.class, IR1.Store.class, 
+      IR1.LabelDec.class, IR1.CJump.class, IR1.Jump.class, IR1.Call.class, IR1.Return.class);
+
+    // One function's figures
+    static class Func extends Laps {
+      final String name;
+      final int irInsts, strings;
+      int x86Insts, frameLoads, frameStores, frameBytes, temps;
+      final int[] opCount = new int[OPS.size()];	// IR instructions, by opcode
+      final int[] opX86 = new int[OPS.size()];		// x86 instructions generated for them
+      final X86.Emitter out;
+      final int instBase, loadBase, storeBase;
+
+      Func(IR1.Func f, X86.Emitter out, boolean alloc) {
+	super(alloc);
+	Map<String,Integer> lits = new HashMap<String,Integer>();
+	for (IR1.Inst i: f.code)
+	  collectStrings(i, lits);
+	this.name = f.gname.s; this.irInsts = f.code.length; this.strings = lits.size();
+	this.out = out; this.instBase = out.instCnt;
+	this.loadBase = out.frameLoads; this.storeBase = out.frameStores;
+      }
+
+      void op(IR1.Inst n, int x86) {
+	int k = OPS.indexOf(n.getClass());
+	opCount[k]++;
+	opX86[k] += x86;
+      }
+
+      void finish(FuncContext c) {
+	lap(OUTPUT);
+	x86Insts = out.instCnt - instBase;
+	frameLoads = out.frameLoads - loadBase;
+	frameStores = out.frameStores - storeBase;
+	frameBytes = c.frameSize;
+	temps = c.slots.tempCount;
+      }
+    }
+
+    Func start(IR1.Func f, X86.Emitter out) {
+      Func st = new Func(f, out, alloc);
+      funcs.put(f, st);
+      return st;
+    }
+
+    // Parsing is done; lex holds the lexer's share
+    void parsed(IR1.Program p, LexTimer lex) {
+      lap(PARSE);
+      if (lex != null) {
+	ns[LEX] = lex.ns; ns[PARSE] -= lex.ns;
+	bytes[LEX] = lex.bytes; bytes[PARSE] -= lex.bytes;
+      }
+      order = p.funcs;
+      for (IR1.Func f: p.funcs)
+	irInsts += f.code.length;
+    }
+
+    void generated(Context c) {
+      x86Insts = c.out.instCnt;
+      strings = c.stringLiterals.size();
+    }
+
+    void report(Options opts) {
+      if (opts.statsFile != null)
+	opts.statsLog.add(this);
+      else
+	synchronized (System.err) {
+	  System.err.print(this);
+	}
+    }
+
+    // Write the collected reports to the --stats file, if any
+    static void write(Options opts) throws IOException {
+      if (opts.statsFile == null)
+	return;
+      Writer w = new BufferedWriter(new FileWriter(opts.statsFile));
+      try {
+	if (opts.statsFile.getName().endsWith(".csv")) {
+	  writeCsv(opts.statsLog, w);
+	  return;
+	}
+	w.write("[");
+	synchronized (opts.statsLog) {
+	  for (int i = 0; i < opts.statsLog.size(); i++)
+	    w.write((i == 0 ? "\n" : ",\n") + opts.statsLog.get(i).toJson());
+	}
+	w.write("\n]\n");
+      } finally {
+	w.close();
+      }
+    }
+
+    static void writeCsv(List<Stats> log, Writer w) throws IOException {
+      w.write("input,func,irInsts,x86Insts,x86PerIR,frameLoads,frameStores,frameBytes,temps,"
+	      + "strings,slotNs,genNs,outputNs\n");
+      synchronized (log) {
+	for (Stats s: log)
+	  for (IR1.Func f: s.order) {
+	    Func st = s.funcs.get(f);
+	    if (st != null)
+	      w.write(String.format(Locale.ROOT, "%s,%s,%d,%d,%.3f,%d,%d,%d,%d,%d,%d,%d,%d\n", 
+				    csv(s.input), csv(st.name), st.irInsts, st.x86Insts, 
+				    ratio(st.x86Insts, st.irInsts), st.frameLoads, st.frameStores, 
+				    st.frameBytes, st.temps, st.strings, 
+				    st.ns[SLOTS], st.ns[GEN], st.ns[OUTPUT]));
+	  }
+      }
+    }
+
+    // The program's IR instructions and their x86 instructions, by opcode
+    int[][] ops() {
+      int[][] t = new int[2][OPS.size()];
+      for (Func st: funcs.values())
+	for (int k = 0; k < OPS.size(); k++) {
+	  t[0][k] += st.opCount[k];
+	  t[1][k] += st.opX86[k];
+	}
+      return t;
+    }
+
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      sb.append(input).append(":");
+      String sep = " ";
+      for (int ph: new int[] {LEX, PARSE, GEN, OUTPUT}) {
+	sb.append(sep).append(String.format("%s %.3f ms", PHASES[ph], ms(ns[ph])));
+	if (alloc)
+	  sb.append(String.format(" %.1f KB", kb(bytes[ph])));
+	sep = ", ";
+      }
+      sb.append(String.format("\n  %d funcs, %d IR insts, %d x86 insts, %d string literals\n",
+			      order.length, irInsts, x86Insts, strings));
+      if (!funcs.isEmpty()) {
+	sb.append(String.format("  %-16s %6s %6s %6s %6s %6s %6s %5s %10s %10s %10s", "func", "IR", 
+				"x86", "loads", "stores", "frame", "temps", "strs", 
+				"slots ms", "gen ms", "output ms"));
+	if (alloc)
+	  sb.append(String.format(" %10s %10s %10s", "slots KB", "gen KB", "output KB"));
+	sb.append("\n");
+      }
+      for (IR1.Func f: order) {
+	Func st = funcs.get(f);
+	if (st == null)
+	  continue;
+	sb.append(String.format("  %-16s %6d %6d %6d %6d %6d %6d %5d %10.3f %10.3f %10.3f", st.name, 
+				st.irInsts, st.x86Insts, st.frameLoads, st.frameStores, st.frameBytes, 
+				st.temps, st.strings, ms(st.ns[SLOTS]), ms(st.ns[GEN]), ms(st.ns[OUTPUT])));
+	if (alloc)
+	  sb.append(String.format(" %10.1f %10.1f %10.1f", 
+				  kb(st.bytes[SLOTS]), kb(st.bytes[GEN]), kb(st.bytes[OUTPUT])));
+	sb.append("\n");
+      }
+      int[][] ops = ops();
+      if (!funcs.isEmpty())
+	sb.append(String.format("  %-16s %6s %6s %6s\n", "IR op", "count", "x86", "x86/op"));
+      for (int k = 0; k < OPS.size(); k++)
+	if (ops[0][k] > 0)
+	  sb.append(String.format("  %-16s %6d %6d %6.2f\n", OPS.get(k).getSimpleName(), 
+				  ops[0][k], ops[1][k], ratio(ops[1][k], ops[0][k])));
+      return sb.toString();
+    }
+
+    String toJson() {
+      StringBuilder sb = new StringBuilder();
+      sb.append("{\"input\": ").append(quote(input));
+      for (int ph: new int[] {LEX, PARSE, GEN, OUTPUT})
+	json(sb, ph);
+      sb.append(", \"irInsts\": ").append(irInsts).append(", \"x86Insts\": ").append(x86Insts)
+	.append(", \"strings\": ").append(strings).append(",\n \"funcs\": [");
+      String sep = "";
+      for (IR1.Func f: order) {
+	Func st = funcs.get(f);
+	if (st == null)
+	  continue;
+	sb.append(sep).append("\n  {\"name\": ").append(quote(st.name))
+	  .append(", \"irInsts\": ").append(st.irInsts).append(", \"x86Insts\": ").append(st.x86Insts)
+	  .append(", \"frameLoads\": ").append(st.frameLoads)
+	  .append(", \"frameStores\": ").append(st.frameStores)
+	  .append(", \"frameBytes\": ").append(st.frameBytes).append(", \"temps\": ").append(st.temps)
+	  .append(", \"strings\": ").append(st.strings);
+	for (int ph: new int[] {SLOTS, GEN, OUTPUT})
+	  st.json(sb, ph);
+	sb.append(",\n   \"ops\": ");
+	json(sb, new int[][] {st.opCount, st.opX86});
+	sb.append("}");
+	sep = ",";
+      }
+      sb.append("],\n \"ops\": ");
+      json(sb, ops());
+      return sb.append("}").toString();
+    }
+
+    // {"Binop": {"count": n, "x86": m, "x86PerOp": r}, ...} for the
+    // opcodes present
+    static void json(StringBuilder sb, int[][] ops) {
+      sb.append("{");
+      String sep = "";
+      for (int k = 0; k < OPS.size(); k++) {
+	if (ops[0][k] == 0)
+	  continue;
+	sb.append(sep).append("\"").append(OPS.get(k).getSimpleName()).append("\": {\"count\": ")
+	  .append(ops[0][k]).append(", \"x86\": ").append(ops[1][k]).append(", \"x86PerOp\": ")
+	  .append(String.format(Locale.ROOT, "%.3f", ratio(ops[1][k], ops[0][k]))).append("}");
+	sep = ", ";
+      }
+      sb.append("}");
+    }
+
+    static double ratio(int a, int b) { return b == 0 ? 0 : (double) a / b; }
+
+    static String csv(String s) {
+      return (s.indexOf(',') < 0 && s.indexOf('"') < 0) ? s : '"' + s.replace("\"", "\"\"") + '"';
+    }
+
+    static double ms(long ns) { return ns / 1e6; }
+    static double kb(long bytes) { return bytes / 1024.0; }
+
+    static String quote(String s) {
+      StringBuilder sb = new StringBuilder("\"");
+      for (char c: s.toCharArray()) {
+	if (c == '"' || c == '\\')
+	  sb.append('\\').append(c);
+	else if (c < ' ')
+	  sb.append(String.format("\\u%04x", (int) c));
+	else
+	  sb.append(c);
+      }
+      return sb.append('"').toString();
+    }
+  }
+
+  // Time (and, if alloc, bytes allocated by this thread) per phase,
+  // accumulated by lap(phase): everything since the previous lap
+  //
+  static class Laps {
+    static final int LEX = 0, PARSE = 1, SLOTS = 2, GEN = 3, OUTPUT = 4;
+    static final String[] PHASES = {"lex", "parse", "slot", "gen", "output"};
+
+    final boolean alloc;
+    final long[] ns = new long[PHASES.length];
+    final long[] bytes = new long[PHASES.length];
+    long lastNs = System.nanoTime();
+    long lastBytes;
+
+    Laps(boolean alloc) {
+      this.alloc = alloc;
+      this.lastBytes = allocated(alloc);
+    }
+
+    void lap(int phase) {
+      long t = System.nanoTime(), b = allocated(alloc);
+      ns[phase] += t - lastNs;
+      bytes[phase] += b - lastBytes;
+      lastNs = t;
+      lastBytes = b;
+    }
+
+    void json(StringBuilder sb, int phase) {
+      sb.append(", \"").append(PHASES[phase]).append("Ns\": ").append(ns[phase]);
+      if (alloc)
+	sb.append(", \"").append(PHASES[phase]).append("Bytes\": ").append(bytes[phase]);
+    }
+
+    // Bytes this thread has allocated so far (0 unless alloc)
+    static long allocated(boolean alloc) {
+      return alloc ? Threads.bean.getCurrentThreadAllocatedBytes() : 0;
+    }
+
+    // (loaded only with --alloc, as it takes a while)
+    static class Threads {
+      static final com.sun.management.ThreadMXBean bean =
+	(com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+    }
+  }
+
+  // Token source that times another (the lexer's share of parsing)
+  //
+  static class LexTimer extends IR1ParserTokenManager {
+    final IR1ParserTokenManager tm;
+    final boolean alloc;
+    long ns, bytes;
+
+    LexTimer(IR1ParserTokenManager tm, boolean alloc) { super(null); this.tm = tm; this.alloc = alloc; }
+
+    public Token getNextToken() {
+      long t = System.nanoTime(), b = Laps.allocated(alloc);
+      Token tok = tm.getNextToken();
+      ns += System.nanoTime() - t;
+      bytes += Laps.allocated(alloc) - b;
+      return tok;
+    }
+
+    public void resolvePositions(Token t) { tm.resolvePositions(t); }
   }
 
   //----------------------------------------------------------------------------------
   // Global Variables
   //------------------
 
-  // Per-program globals
-  //
-  static List<String> stringLiterals; 	    // collection of all string literals
-  //  static List<String> funcList;
   static final X86.Reg tempReg1 = X86.R10;  // two random scratch registers
   static final X86.Reg tempReg2 = X86.R11;  //
 
-  // Per-function globals
+  // Per-program state
+  //
+  static class Context {
+    final X86.Emitter out; 	    // output for the whole program
+    final Options opts; 	    // command-line options
+    final Map<String,Integer> stringLiterals	    // each distinct string literal's label number
+      = new LinkedHashMap<String,Integer>();
+    Stats stats;			    // --stats: this compile's statistics (or null)
+
+    Context(X86.Emitter out, Options opts) { this.out = out; this.opts = opts; }
+  }
+
+  // Per-function state
   //
-  static List<String> allVars; 	    // collection of all params, vars, and temps
-  static int frameSize; 		    // stack frame size (in bytes)
-  static String fnName; 		    // function's name
+  static class FuncContext {
+    final Context prog; 	    // enclosing program's state
+    final X86.Emitter out; 	    // output for this function
+    SlotTable slots; 		    // stack slots of all params, vars, and temps
+    X86.Reg[] regs;		    // register of each slot, null if in the frame (-n: no array)
+    X86.Reg[] saved;		    // callee-saved registers to save in the prologue
+    int frameSize; 		    // stack frame size (in bytes)
+    String fnName; 		    // function's name
+    Map<String,Integer> strings;    // string literal label numbers (normally the program's pool)
+    Stats.Func stats;		    // --stats: this function's figures (or null)
+
+    FuncContext(Context prog, X86.Emitter out) { 
+      this.prog = prog; this.out = out; this.strings = prog.stringLiterals; 
+    }
+  }
 
-  // Return a variable's stack frame address
+  // Return a variable's stack frame offset (from RSP)
   //
-  static X86.Mem varMem(IR1.Dest dest) throws Exception {
-    int idx = allVars.indexOf(dest.toString());
+  static int varOffset(IR1.Dest dest, FuncContext c) throws Exception {
+    int idx = c.slots.lookup(dest);
     if (idx < 0)
-      throw new GenException("Variable not found in allVars collection: " 
+      throw new GenException("Variable not found in slot table: " 
 			     + dest.toString());
-    int offset = idx * X86.Size.L.bytes;
-    return new X86.Mem(X86.RSP, offset);
-  }
-
-  // Return a functions exact temp count
-  //
-  public static int countTemps(IR1.Inst[] code) {
-	Set<String> temps = new HashSet<String>();
-	for (IR1.Inst i: code) {
-	  if (i instanceof IR1.Binop)
-		if (((IR1.Binop) i).dst instanceof IR1.Temp)
-		  temps.add(((IR1.Binop) i).dst.toString());
-	  if (i instanceof IR1.Unop)
-		if (((IR1.Unop) i).dst instanceof IR1.Temp)
-		  temps.add(((IR1.Unop) i).dst.toString());
-	  if (i instanceof IR1.Move)
-		if (((IR1.Move) i).dst instanceof IR1.Temp)
-		  temps.add(((IR1.Move) i).dst.toString());
-	  if (i instanceof IR1.Load)
-		if (((IR1.Load) i).dst instanceof IR1.Temp)
-		  temps.add(((IR1.Load) i).dst.toString());
-	  if (i instanceof IR1.Call)
-		if (((IR1.Call) i).rdst != null)
-		  if (((IR1.Call) i).rdst instanceof IR1.Temp)
-			temps.add(((IR1.Call) i).rdst.toString());
+    return idx * X86.Size.L.bytes;
+  }
+
+  // Stack slot assignment for a function's params, vars, and temps
+  //
+  // Params and locals get the first slots, then each Dest in order of
+  // its first definition. Ids are found through a hash map, temps
+  // through an array indexed by temp number. Built in one pass over
+  // the code, which also counts the distinct temps for frame sizing.
+  //
+  static class SlotTable {
+    final Map<String,Integer> ids = new HashMap<String,Integer>();
+    int[] temps = new int[16];	// slot by temp number, -1 if none
+    int size = 0;			// slots assigned
+    int tempCount = 0;		// distinct temps defined
+
+    SlotTable(IR1.Func f) {
+      Arrays.fill(temps, -1);
+      for (IR1.Id p: f.params)
+	add(p);
+      for (IR1.Id v: f.locals)
+	add(v);
+      for (IR1.Inst i: f.code) {
+	IR1.Dest d = dest(i);
+	if (d != null && lookup(d) < 0)
+	  add(d);
+      }
+    }
+
+    // Params and locals always take a slot, even if their name repeats
+    void add(IR1.Dest d) {
+      int slot = size++;
+      if (d instanceof IR1.Temp) {
+	int num = ((IR1.Temp) d).num;
+	if (num >= temps.length) {
+	  int old = temps.length;
+	  temps = Arrays.copyOf(temps, Math.max(num + 1, old * 2));
+	  Arrays.fill(temps, old, temps.length, -1);
+	}
+	if (temps[num] < 0) {
+	  temps[num] = slot;
+	  tempCount++;
 	}
-	// return the number of unique temps
-	return temps.size();
+      } else if (!ids.containsKey(((IR1.Id) d).s)) {
+	ids.put(((IR1.Id) d).s, slot);
+      }
+    }
+
+    // Return a variable's slot index, or -1 if it has none
+    int lookup(Object v) {
+      if (v instanceof IR1.Temp) {
+	int num = ((IR1.Temp) v).num;
+	return num < temps.length ? temps[num] : -1;
+      }
+      if (v instanceof IR1.Id) {
+	Integer slot = ids.get(((IR1.Id) v).s);
+	return slot == null ? -1 : slot;
+      }
+      return -1;
+    }
+  }
+
+  // Return the variable an instruction defines, or null
+  //
+  static IR1.Dest dest(IR1.Inst n) {
+    if (n instanceof IR1.Binop) return ((IR1.Binop) n).dst;
+    if (n instanceof IR1.Unop)  return ((IR1.Unop) n).dst;
+    if (n instanceof IR1.Move)  return ((IR1.Move) n).dst;
+    if (n instanceof IR1.Load)  return ((IR1.Load) n).dst;
+    if (n instanceof IR1.Call)  return ((IR1.Call) n).rdst;
+    return null;
   }
 
   //----------------------------------------------------------------------------------
@@ -100,23 +920,87 @@ class CodeGen {
   // Func[] funcs;
   //
   // Guideline:
+  // - collect the string literals, in source order, so that their
+  //   labels do not depend on the order functions are generated in
   // - generate code for each function
   // - emit all accumulated string literals
   //
-  public static void gen(IR1.Program n) throws Exception { 
-    stringLiterals = new ArrayList<String>();
+  public static void gen(IR1.Program n, Context c) throws Exception { 
 	//	funcList = new ArrayList<String>();
-    X86.emit0(".text");
     for (IR1.Func f: n.funcs)
-      gen(f);
-    int i = 0;
-    for (String s: stringLiterals) {
-      X86.Label lab = new X86.Label("_S" + i);
-      X86.emitLabel(lab);
-      X86.emitString(s);
-      i++;
+      for (IR1.Inst i: f.code)
+	collectStrings(i, c.stringLiterals);
+    c.out.emit0(".text");
+    if (c.opts.parallel)
+      genParallel(n.funcs, c);
+    else
+      for (IR1.Func f: n.funcs)
+	genFunc(f, c, c.out);
+    for (Map.Entry<String,Integer> s: c.stringLiterals.entrySet()) {
+      X86.Label lab = new X86.Label("_S" + s.getValue());
+      c.out.emitStringLit(lab, s.getKey());
     }      
-    System.out.print("\t\t\t  # Total inst cnt: " + X86.instCnt + "\n");
+    c.out.emitComment("Total inst cnt: " + c.out.instCnt + "\n");
+    c.out.flush();
+  }
+
+  // Generate each function into its own in-memory buffer on the
+  // fork-join pool, then copy the buffers out in source order.
+  //
+  static void genParallel(IR1.Func[] funcs, final Context c) throws Exception {
+    List<ForkJoinTask<X86.Emitter>> tasks = new ArrayList<ForkJoinTask<X86.Emitter>>();
+    for (final IR1.Func f: funcs)
+      tasks.add(ForkJoinPool.commonPool().submit(new Callable<X86.Emitter>() {
+	public X86.Emitter call() throws Exception {
+	  X86.Emitter out = c.out.fork();
+	  genFunc(f, c, out);
+	  return out;
+	}
+      }));
+    for (ForkJoinTask<X86.Emitter> t: tasks) {
+      try {
+	c.out.append(t.get());
+      } catch (ExecutionException e) {
+	throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+      }
+    }
+  }
+
+  // Generate one function into out, through the function cache when
+  // one is in use (assembly output only)
+  //
+  static void genFunc(IR1.Func f, Context c, X86.Emitter out) throws Exception {
+    if (c.opts.cache != null && !c.opts.object)
+      c.opts.cache.gen(f, c, out);
+    else
+      gen(f, new FuncContext(c, out));
+  }
+
+  // Intern the string literals an instruction's operands bring in, in
+  // the order to_reg() visits them; each distinct string gets the next
+  // label number
+  //
+  static void collectStrings(IR1.Inst n, Map<String,Integer> lits) {
+    List<IR1.Src> srcs = new ArrayList<IR1.Src>();
+    if (n instanceof IR1.Binop) {
+      srcs.add(((IR1.Binop) n).src1); srcs.add(((IR1.Binop) n).src2);
+    } else if (n instanceof IR1.Unop) {
+      srcs.add(((IR1.Unop) n).src);
+    } else if (n instanceof IR1.Move) {
+      srcs.add(((IR1.Move) n).src);
+    } else if (n instanceof IR1.Load) {
+      srcs.add(((IR1.Load) n).addr.base);
+    } else if (n instanceof IR1.Store) {
+      srcs.add(((IR1.Store) n).src); srcs.add(((IR1.Store) n).addr.base);
+    } else if (n instanceof IR1.CJump) {
+      srcs.add(((IR1.CJump) n).src1); srcs.add(((IR1.CJump) n).src2);
+    } else if (n instanceof IR1.Call) {
+      srcs.addAll(Arrays.asList(((IR1.Call) n).args));
+    }
+    for (IR1.Src s: srcs)
+      if (s instanceof IR1.StrLit)
+	if (!lits.containsKey(((IR1.StrLit) s).s))
+	  lits.put(((IR1.StrLit) s).s, lits.size());
   }
 
   // Func ---
@@ -127,12 +1011,14 @@ class CodeGen {
   //
   // Guideline:
   // - count params; if there are more than 6 params, just fail
-  // - initilialize the 'allVars' list to include all params and 
-  //    local vars; this list will grow to include all temps later
+  // - build the function's slot table, assigning a frame slot to
+  //    every param, local var, and temp
   // - emit function's header, here is an example:
   //         .p2align 4,0x90
   //  	     .globl _main
   //     _main:
+  // - unless -n, allocate registers (RegAlloc), and push the
+  //   callee-saved registers the function uses
   // - allocate a frame for storing all params, vars, and temps
   //   . use inst count as a (safe) estimate for temp count
   //   . the space needed is 
@@ -140,77 +1026,113 @@ class CodeGen {
   //   . use the following statement to adjust the alignment need:
   //       if ((frameSize % 16) == 0) 
   //	      frameSize += 8;
-  // - store the incoming actual arguments to their frame slots:
-  //   . translate arg's index in the 'allVars' list to its stack 
+  //     (unless -n, pad it instead so that, after the pushes,
+  //     calls see RSP 16-byte aligned)
+  // - store the incoming actual arguments to their frame slots
+  //   (or registers):
+  //   . translate arg's index in the slot table to its stack 
   //     frame offset: idx * 4
   //   . pay attention to size info -- all IR1's stored values
   //     are integers; you may need to use the ultility routine
   //     X86.resize_reg()
   // - emit code for the body
   //
-  static void gen(IR1.Func n) throws Exception {
-	allVars = new ArrayList<String>();
+  static void gen(IR1.Func n, FuncContext c) throws Exception {
     if (n.params.length > X86.argRegs.length)
       throw new GenException("Function has too many paramters: " 
 			     + n.params.length);
-    fnName = n.gname.toString();
+    Events.GenFunc ev = Events.enabled ? new Events.GenFunc() : null;
+    if (ev != null) ev.begin();
+    long bytes = c.out.bytes();
+    Stats.Func st = (c.prog.stats == null) ? null : c.prog.stats.start(n, c.out);
+    c.stats = st;
+    c.fnName = n.gname.toString();
 	//	funcList.add(fnName);
-    System.out.print("\t\t\t  # " + n.header());
+    c.out.emitComment(n.header());
 
     // emit the function header
-    X86.emit0(".p2align 4,0x90");
+    c.out.emit0(".p2align 4,0x90");
     X86.Label f = new X86.Label(n.gname.toString());
-    X86.emit1(".globl", f);
-    X86.emitLabel(f);
+    c.out.emit1(".globl", f);
+    c.out.emitLabel(f);
 
-	// initialize allVars list to include params and local vars
-	for (IR1.Id p: n.params)
-	  allVars.add(p.toString());
-	for (IR1.Id v: n.locals)
-	  allVars.add(v.toString());
+	// assign stack slots to params, local vars and temps
+    if (st != null) st.lap(Stats.GEN);
+	c.slots = new SlotTable(n);
+    c.saved = new X86.Reg[0];
+    if (!c.prog.opts.noRegAlloc) {
+      RegAlloc ra = new RegAlloc(n, c.slots);
+      c.regs = ra.regs;
+      c.saved = ra.saved;
+    }
+    if (st != null) st.lap(Stats.SLOTS);
+    for (X86.Reg r: c.saved)
+      c.out.emit1("pushq", r);
 
 	// allocate a frame for storing all params, vars and temps
-	int instCount = countTemps(n.code);
 	int paramCount = n.params.length;
 	int varCount = n.locals.length;
-    frameSize = (paramCount + varCount + instCount) * 4;
+    c.frameSize = (paramCount + varCount + c.slots.tempCount) * 4;
 
-	if ((frameSize % 16) == 0)
-	  frameSize += 8;
+    if (c.regs == null) {
+	if ((c.frameSize % 16) == 0)
+	  c.frameSize += 8;
+    } else {
+      while ((c.frameSize + 8 * c.saved.length + 8) % 16 != 0)
+	c.frameSize += 4;
+    }
 	//X86.Mem sframe = new X86.Mem(X86.RSP, frameSize);
-	X86.emit2("subq", new X86.Imm(frameSize), X86.RSP);
+	c.out.emitIR("subq", c.frameSize, X86.RSP);
 
-	// store the incoming actual args to their frame slots
+	// store the incoming actual args to their frame slots (or regs)
 	int argRegIdx = 5;
 	for (int i=0; i < paramCount; i++) {
+	  X86.Reg arg;
 	  if (argRegIdx == 1)
-	    X86.emit2("movl", new X86.Reg(8, X86.Size.L), new X86.Mem(X86.RSP, i*4)); 
+	    arg = X86.reg(8, X86.Size.L);
 	  else if (argRegIdx == 0)
-	    X86.emit2("movl", new X86.Reg(9, X86.Size.L), new X86.Mem(X86.RSP, i*4)); 
+	    arg = X86.reg(9, X86.Size.L);
 	  else
-	    X86.emit2("movl", new X86.Reg(argRegIdx, X86.Size.L), new X86.Mem(X86.RSP, i*4)); 
+	    arg = X86.reg(argRegIdx, X86.Size.L);
+	  if (c.regs != null && c.regs[i] != null)
+	    c.out.emit2("movslq", arg, c.regs[i]);
+	  else
+	    c.out.emitRM("movl", arg, X86.RSP, i*4); 
 	  argRegIdx--;
 	}
     // emit code for the body
     for (int i = 1; i <= n.code.length; i++) 
-      gen(n.code[i-1]);
+      gen(n.code[i-1], c);
+    if (st != null) st.lap(Stats.GEN);
+    c.out.flush();
+    if (st != null) st.finish(c);
+    if (ev != null && ev.shouldCommit()) {
+      ev.func = c.fnName;
+      ev.irInsts = n.code.length;
+      ev.temps = c.slots.tempCount;
+      ev.bytes = c.out.bytes() - bytes;
+      ev.commit();
+    }
   }
 
   // INSTRUCTIONS
 
-  static void gen(IR1.Inst n) throws Exception {
-    System.out.print("\t\t\t  # " + n);
-    if (n instanceof IR1.Binop) 	gen((IR1.Binop) n);
-    else if (n instanceof IR1.Unop) 	gen((IR1.Unop) n);
-    else if (n instanceof IR1.Move) 	gen((IR1.Move) n);
-    else if (n instanceof IR1.Load) 	gen((IR1.Load) n);
-    else if (n instanceof IR1.Store) 	gen((IR1.Store) n);
-    else if (n instanceof IR1.LabelDec) gen((IR1.LabelDec) n);
-    else if (n instanceof IR1.CJump) 	gen((IR1.CJump) n);
-    else if (n instanceof IR1.Jump) 	gen((IR1.Jump) n);
-    else if (n instanceof IR1.Call)     gen((IR1.Call) n);
-    else if (n instanceof IR1.Return)   gen((IR1.Return) n);
+  static void gen(IR1.Inst n, FuncContext c) throws Exception {
+    int x86 = c.out.instCnt;
+    c.out.emitComment(n);
+    if (n instanceof IR1.Binop) 	gen((IR1.Binop) n, c);
+    else if (n instanceof IR1.Unop) 	gen((IR1.Unop) n, c);
+    else if (n instanceof IR1.Move) 	gen((IR1.Move) n, c);
+    else if (n instanceof IR1.Load) 	gen((IR1.Load) n, c);
+    else if (n instanceof IR1.Store) 	gen((IR1.Store) n, c);
+    else if (n instanceof IR1.LabelDec) gen((IR1.LabelDec) n, c);
+    else if (n instanceof IR1.CJump) 	gen((IR1.CJump) n, c);
+    else if (n instanceof IR1.Jump) 	gen((IR1.Jump) n, c);
+    else if (n instanceof IR1.Call)     gen((IR1.Call) n, c);
+    else if (n instanceof IR1.Return)   gen((IR1.Return) n, c);
     else throw new GenException("Illegal IR1 instruction: " + n);
+    if (c.stats != null)
+      c.stats.op(n, c.out.instCnt - x86);
   }
 
   // Binop ---
@@ -219,7 +1141,7 @@ class CodeGen {
   //  Src src1, src2;
   //
   // Guideline:
-  // - add dst to 'allVars' if it is not not already there
+  // - look up dst's frame slot in the function's slot table
   // - for arithmetic ops ADD, SUB, MUL, AND, and OR:
   //   . call to_reg() to bring both operands to registers
   //   . generate code for the Binop
@@ -234,56 +1156,52 @@ class CodeGen {
   //   . note that set takes a byte-sized register
   //   . emit "movzbl" to size-extend the result register
   // - for all cases:
-  //   . emit a "mov" to move the result to dst's stack slot
-  //     (pay attention to size info -- all IR1's stored values
-  //      are integers)
+  //   . call to_dest() to move the result to dst's stack slot or
+  //     register (pay attention to size info -- all IR1's stored
+  //     values are integers)
+  // - an operand that is only read can stay in its register (see
+  //   src_reg())
   //
-  static void gen(IR1.Binop n) throws Exception {
-	// add des to allVars if it is not already there
-	if(!allVars.contains(n.dst.toString()))
-	  allVars.add(n.dst.toString());
-
-	int idx = allVars.indexOf(n.dst.toString());
- 
+  static void gen(IR1.Binop n, FuncContext c) throws Exception {
 	if (n.op instanceof IR1.AOP) {
 	  // for DIV
 	  if (n.op == IR1.AOP.DIV) {
-		to_reg(n.src1, X86.RAX);
-		X86.emit0("cqto");
-		to_reg(n.src2, tempReg2);
-		X86.emit1("idivq", tempReg2);
-	    X86.emit2("movl", X86.EAX, new X86.Mem(X86.RSP, idx*4)); 
+		to_reg(n.src1, X86.RAX, c);
+		c.out.emit0("cqto");
+		X86.Reg r2 = src_reg(n.src2, tempReg2, c);
+		c.out.emit1("idivq", r2);
+	    to_dest(X86.RAX, n.dst, c);
 
 	  }
 	  // for ADD, SUB, MUL, AND, OR
 	  else {
-		to_reg(n.src1, tempReg1);
-		to_reg(n.src2, tempReg2);
+		to_reg(n.src1, tempReg1, c);
+		X86.Reg r2 = src_reg(n.src2, tempReg2, c);
 	    switch ((IR1.AOP) n.op) {
-		  case ADD: X86.emit2("addq", tempReg2, tempReg1); break;
-		  case SUB: X86.emit2("subq", tempReg2, tempReg1); break;
-		  case MUL: X86.emit2("imulq", tempReg2, tempReg1); break;
+		  case ADD: c.out.emit2("addq", r2, tempReg1); break;
+		  case SUB: c.out.emit2("subq", r2, tempReg1); break;
+		  case MUL: c.out.emit2("imulq", r2, tempReg1); break;
 	      case AND:
 	      case OR:
 	    }
-    	X86.emit2("movl", new X86.Reg(10 , X86.Size.L), new X86.Mem(X86.RSP, idx*4)); 
+    	to_dest(tempReg1, n.dst, c);
 	  }
 	}
 	// for ROP's
 	if (n.op instanceof IR1.ROP) {
-		to_reg(n.src1, tempReg1);
-		to_reg(n.src2, tempReg2);
-		X86.emit2("cmpq", tempReg2, tempReg1);
+		to_reg(n.src1, tempReg1, c);
+		X86.Reg r2 = src_reg(n.src2, tempReg2, c);
+		c.out.emit2("cmpq", r2, tempReg1);
 		switch ((IR1.ROP) n.op) {
-		  case GT: X86.emit1("setg", new X86.Reg(10, X86.Size.B)); break;
+		  case GT: c.out.emit1("setg", X86.reg(10, X86.Size.B)); break;
 		  case GE:
-		  case LT: X86.emit1("setl", new X86.Reg(10, X86.Size.B)); break;
+		  case LT: c.out.emit1("setl", X86.reg(10, X86.Size.B)); break;
 		  case LE:
-		  case EQ: X86.emit1("sete", new X86.Reg(10, X86.Size.B)); break;
+		  case EQ: c.out.emit1("sete", X86.reg(10, X86.Size.B)); break;
 		  case NE:
 	   }
-	   X86.emit2("movzbl", new X86.Reg(10, X86.Size.B), new X86.Reg(10, X86.Size.L));
-	   X86.emit2("movl", new X86.Reg(10 , X86.Size.L), new X86.Mem(X86.RSP, idx*4)); 
+	   c.out.emit2("movzbl", X86.reg(10, X86.Size.B), X86.reg(10, X86.Size.L));
+	   to_dest(tempReg1, n.dst, c);
 	}
   }	
 
@@ -293,32 +1211,24 @@ class CodeGen {
   //  Src src;
   //
   // Guideline:
-  // - add dst to 'allVars' if it is not not already there
+  // - look up dst's frame slot in the function's slot table
   // - call to_reg() to bring the operand to a register
   // - generate code for the op
-  // - emit a "mov" to move the result to dst's stack slot
-  //   (pay attention to size info)
+  // - call to_dest() to move the result to dst's stack slot or
+  //   register
   //  
-  static void gen(IR1.Unop n) throws Exception {
-    String varName = n.dst.toString();
-
-	// add dst to allVars if it is not already there
-    if (!allVars.contains(varName))
-      allVars.add(varName);
-
-	int idx = allVars.indexOf(n.dst.toString());
-
+  static void gen(IR1.Unop n, FuncContext c) throws Exception {
 	// call to_reg()
-    to_reg(n.src, tempReg1);
+    to_reg(n.src, tempReg1, c);
 
 	// generate code for the op
 	if (n.op == IR1.UOP.NOT)
-	  X86.emit1("notq", tempReg1);
+	  c.out.emit1("notq", tempReg1);
 	else if (n.op == IR1.UOP.NEG) {
-	  X86.emit1("negq", tempReg1);
+	  c.out.emit1("negq", tempReg1);
 	}
-	// emit a mov to move the result to dst's stack slot
-    X86.emit2("movl", new X86.Reg(10 , X86.Size.L), new X86.Mem(X86.RSP, idx*4)); 
+	// move the result to dst
+    to_dest(tempReg1, n.dst, c);
   }
 
   // Move ---
@@ -326,18 +1236,28 @@ class CodeGen {
   //  Src src;
   //
   // Guideline:
-  // - add dst to 'allVars' if it is not already there
   // - call to_reg() to generate code for the src
-  // - emit a "mov" to move the result to dst's stack slot
+  // - call to_dest() to move the result to dst's stack slot or
+  //   register
+  // - if dst has a register, a constant or another register can go
+  //   straight into it (both are already sign-extended)
   //  
-  static void gen(IR1.Move n) throws Exception {
-    String varName = n.dst.toString();
-    if (!allVars.contains(varName))
-      allVars.add(varName);
-    X86.Mem dstMem = varMem(n.dst);
-    to_reg(n.src, tempReg1);
-    X86.Reg reg = X86.resize_reg(X86.Size.L, tempReg1);
-    X86.emit2("movl", reg, dstMem);
+  static void gen(IR1.Move n, FuncContext c) throws Exception {
+    X86.Reg dst = regOf(n.dst, c);
+    if (dst != null) {
+      X86.Reg src = regOf(n.src, c);
+      if (src != null) {
+	if (src != dst)
+	  c.out.emit2("movq", src, dst);
+	return;
+      }
+      if (n.src instanceof IR1.IntLit || n.src instanceof IR1.BoolLit) {
+	to_reg(n.src, dst, c);
+	return;
+      }
+    }
+    to_reg(n.src, tempReg1, c);
+    to_dest(tempReg1, n.dst, c);
   }
 
   // Load ---  
@@ -345,24 +1265,23 @@ class CodeGen {
   //  Addr addr;
   //
   // Guideline:
-  // - add dst to 'allVars' if it is not already there
   // - call gen_addr() to generate code for addr
-  // - emit a "mov" to move the result to dst's stack slot
-  //   (pay attention to size info)
+  // - load the value into dst's register, or emit a "mov" to move
+  //   it to dst's stack slot (pay attention to size info)
   //
-  static void gen(IR1.Load n) throws Exception {
-    String varName = n.dst.toString();
-    if (!allVars.contains(varName))
-      allVars.add(varName);
-
-	int idx = allVars.indexOf(n.dst.toString());
+  static void gen(IR1.Load n, FuncContext c) throws Exception {
+	X86.Reg dst = regOf(n.dst, c);
 
 	// call gen_addr()
-	X86.Mem adr= gen_addr(n.addr, tempReg1);
+	X86.Reg base = gen_addr(n.addr, tempReg1, c);
 
-	// emit a mov to mvoe the result to dst's stack slot
-	X86.emit2("movslq", adr, tempReg2);
-    X86.emit2("movl", new X86.Reg(11 , X86.Size.L), new X86.Mem(X86.RSP, idx*4)); 
+	// load the value into dst
+	if (dst != null) {
+	  c.out.emitMR("movslq", base, n.addr.offset, dst);
+	} else {
+	  c.out.emitMR("movslq", base, n.addr.offset, tempReg2);
+	  to_dest(tempReg2, n.dst, c);
+	}
   }
 
   // Store ---  
@@ -374,15 +1293,15 @@ class CodeGen {
   // - call gen_addr() to generate code for addr
   // - emit a "mov" (pay attention to size info)
   //
-  static void gen(IR1.Store n) throws Exception {
-	// call to_reg()
-	to_reg(n.src, tempReg1);
+  static void gen(IR1.Store n, FuncContext c) throws Exception {
+	// call src_reg()
+	X86.Reg src = src_reg(n.src, tempReg1, c);
 
 	// call gen_addr()
-	X86.Mem adr = gen_addr(n.addr, tempReg2);
+	X86.Reg base = gen_addr(n.addr, tempReg2, c);
 
 	// emit a mov
-    X86.emit2("movl", new X86.Reg(10 , X86.Size.L), adr); 
+    c.out.emitRM("movl", X86.resize_reg(X86.Size.L, src), base, n.addr.offset); 
   }
 
   // LabelDec ---  
@@ -392,8 +1311,8 @@ class CodeGen {
   // - emit an unique label by adding func's name in
   //   front of IR1's label name
   //
-  static void gen(IR1.LabelDec n) {
-    X86.emitLabel(new X86.Label(fnName + "_" + n.lab.name));
+  static void gen(IR1.LabelDec n, FuncContext c) throws Exception {
+    c.out.emitLabel(c.fnName, n.lab.name);
   }
 
   // CJump ---
@@ -407,14 +1326,14 @@ class CodeGen {
   //   . remember: left and right are switched under gnu assembler
   //   . also, IR1 and X86 names for the cond suffixes are the same
   //
-  static void gen(IR1.CJump n) throws Exception {
-	// call to_reg()
-	to_reg(n.src1, tempReg1);
-	to_reg(n.src2, tempReg2);
+  static void gen(IR1.CJump n, FuncContext c) throws Exception {
+	// call src_reg()
+	X86.Reg r1 = src_reg(n.src1, tempReg1, c);
+	X86.Reg r2 = src_reg(n.src2, tempReg2, c);
 
 	// generate a cmp and jump instruction
-	X86.emit2("cmpq", tempReg2, tempReg1);
-	X86.emit1("je", new X86.Label(fnName + "_" + n.lab.name));
+	c.out.emit2("cmpq", r2, r1);
+	c.out.emitJump("je", c.fnName, n.lab.name);
   }	
 
   // Jump ---
@@ -424,9 +1343,9 @@ class CodeGen {
   // - generate a "jmp" to a label
   //   . again, adding func's name in front of IR1's label name
   //
-  static void gen(IR1.Jump n) throws Exception {
+  static void gen(IR1.Jump n, FuncContext c) throws Exception {
 	// generate a jmp to a label
-	X86.emit1("jmp", new X86.Label(fnName + "_" + n.lab.name));
+	c.out.emitJump("jmp", c.fnName, n.lab.name);
   }	
 
   // Call ---
@@ -439,11 +1358,10 @@ class CodeGen {
   // - call to_reg to move arguments into the argument regs
   // - emit a "call" with func's name as the label
   // - if return value is expected, 
-  //   . add rdst to 'allVars' if it is not not already there
-  //   . emit a "mov" to move result from rax to rdst's frame slot 
-  //     (pay attention to size info)
+  //   . call to_dest() to move result from rax to rdst's frame
+  //     slot or register (pay attention to size info)
   //
-  static void gen(IR1.Call n) throws Exception {
+  static void gen(IR1.Call n, FuncContext c) throws Exception {
 	// count args, if more than 6 then fail
     if (n.args.length > X86.argRegs.length)
       throw new GenException("Function has too many paramters: " 
@@ -453,26 +1371,20 @@ class CodeGen {
 	int argRegIdx = 5;
 	for (int i=0; i < n.args.length; i++) {
 	  if (argRegIdx == 1)
-	    to_reg(n.args[i], new X86.Reg(8)); 
+	    to_reg(n.args[i], X86.R8, c); 
 	  else if (argRegIdx == 0)
-	    to_reg(n.args[i], new X86.Reg(9)); 
+	    to_reg(n.args[i], X86.R9, c); 
 	  else
-	    to_reg(n.args[i], new X86.Reg(argRegIdx)); 
+	    to_reg(n.args[i], X86.reg(argRegIdx, X86.Size.Q), c); 
 	  argRegIdx--;
 	}
 
 	// emit a "call" with func's name as the label
-	X86.emit1("call", new X86.Label(n.gname.toString()));
+	c.out.emitJump("call", n.gname.s, null);
 
 	// if retur is expected
-	if (n.rdst != null) {
-      String varName = n.rdst.toString();
-      if (!allVars.contains(varName))
-        allVars.add(varName);
-
-	  int idx = allVars.indexOf(n.rdst.toString());
-	  X86.emit2("movl", X86.EAX, new X86.Mem(X86.RSP, idx*4));
-	}
+	if (n.rdst != null)
+	  to_dest(X86.RAX, n.rdst, c);
 
   }
 
@@ -482,25 +1394,31 @@ class CodeGen {
   // Guideline:
   // - if there is a value, emit a "mov" to move it to rax
   // - pop the frame (add frameSize back to stack pointer)
+  // - pop the callee-saved registers pushed in the prologue
   // - emit a "ret"
   //
-  static void gen(IR1.Return n) throws Exception {
+  static void gen(IR1.Return n, FuncContext c) throws Exception {
 
     // ... need code ...
 	// if there is a value, emit a mov to move it ot rax
 	if (n.val != null) {
 	  if (n.val instanceof IR1.IntLit) {
-		to_reg(n.val, X86.RAX);
+		to_reg(n.val, X86.RAX, c);
+	  }
+	  else if (regOf(n.val, c) != null) {
+		c.out.emit2("movq", regOf(n.val, c), X86.RAX);
 	  }
 	  else {
-	  int idx = allVars.indexOf(n.val.toString());
-	  X86.emit2("movslq", new X86.Mem(X86.RSP, idx*4) ,X86.RAX);
+	  int idx = c.slots.lookup(n.val);
+	  c.out.emitMR("movslq", X86.RSP, idx*4, X86.RAX);
 	  }
 	}
 	// pop the fram
-	X86.emit2("addq", new X86.Imm(frameSize), X86.RSP);
+	c.out.emitIR("addq", c.frameSize, X86.RSP);
+	for (int i = c.saved.length - 1; i >= 0; i--)
+	  c.out.emit1("popq", c.saved[i]);
 	// emit a ret
-	X86.emit0("ret");
+	c.out.emit0("ret");
 
   }
 
@@ -513,40 +1431,47 @@ class CodeGen {
   // Guideline:
   // - Id and Temp:
   //   . emit code to load the value from stack memory to the temp reg
+  //     (or copy it from the variable's register)
   // - IntLit:
   //   . emit code to move the value to the temp reg
   // - BoolLit:
   //   . same as IntLit, except that use 1 for "true" and 0 for "false"
   // - StrLit:
-  //   . add the string to 'stringLiterals' collection to be emitted late
-  //   . construct a label "_Sn" where n is the index of the string 
-  //     in the 'stringLiterals' collection
+  //   . the string is already in the 'stringLiterals' pool (see 
+  //     collectStrings()), to be emitted late
+  //   . construct a label "_Sn" where n is the string's number 
+  //     in the function's 'strings' map (normally the program's 
+  //     pool; function-local for cached functions)
   //   . emit a "lea" to move the label to the temp reg
   //
-  static void to_reg(IR1.Src n, final X86.Reg tempReg) throws Exception {
+  static void to_reg(IR1.Src n, final X86.Reg tempReg, FuncContext c) throws Exception {
 
     // ... need code ...
 	// Id and Temp
 	if (n instanceof IR1.Id || n instanceof IR1.Temp) {
-	  int idx = allVars.indexOf(n.toString());
-	  X86.emit2("movslq", new X86.Mem(X86.RSP, 4*idx), tempReg); 
+	  X86.Reg r = regOf(n, c);
+	  if (r != null) {
+	    if (r != tempReg)
+	      c.out.emit2("movq", r, tempReg);
+	  } else {
+	    int idx = c.slots.lookup(n);
+	    c.out.emitMR("movslq", X86.RSP, 4*idx, tempReg); 
+	  }
 	}
 	// IntLit
 	if (n instanceof IR1.IntLit)
-	  X86.emit2("movq", new X86.Imm(((IR1.IntLit) n).i), tempReg);
+	  c.out.emitIR("movq", ((IR1.IntLit) n).i, tempReg);
 
 	// BoolLit
 	if (n instanceof IR1.BoolLit) {
 	  int bval = 0;
 	  if (((IR1.BoolLit) n).b) bval = 1;
-	  X86.emit2("movq", new X86.Imm(bval), tempReg);
+	  c.out.emitIR("movq", bval, tempReg);
 	}
 	// StrLit
 	if (n instanceof IR1.StrLit) {
 	  String str = ((IR1.StrLit) n).s;
-	  stringLiterals.add(str);
-	  X86.Label lb = new X86.Label("_S" + stringLiterals.indexOf(str));
-	  X86.emit2("leaq", new X86.AddrName(lb.toString()), tempReg);
+	  c.out.emitAddrName("leaq", "_S", c.strings.get(str), tempReg);
 	}
   }
 
@@ -555,11 +1480,45 @@ class CodeGen {
   // int offset;
   //
   // Guideline:
-  // - call to_reg() on base to place it in a reg
-  // - return a memory operand (i.e. X86.Mem) representing the address
+  // - call src_reg() on base to place it in a reg (or find the reg
+  //   it is in)
+  // - return that reg; the address is then offset(reg), which the
+  //   caller emits with emitRM()/emitMR()
+  //
+  static X86.Reg gen_addr(IR1.Addr addr, X86.Reg tempReg, FuncContext c) throws Exception {
+    return src_reg(addr.base, tempReg, c);
+  }
+
+  // Like to_reg(), but a variable that has a register is used in
+  // place: return the register holding the Src's value
+  //
+  static X86.Reg src_reg(IR1.Src n, X86.Reg tempReg, FuncContext c) throws Exception {
+    X86.Reg r = regOf(n, c);
+    if (r != null)
+      return r;
+    to_reg(n, tempReg, c);
+    return tempReg;
+  }
+
+  // Store the value in reg to a variable: sign-extend its low half
+  // into the variable's register, or "movl" it to its stack slot
+  // (either way, what a later to_reg() gets back is the same)
+  //
+  static void to_dest(X86.Reg reg, IR1.Dest dst, FuncContext c) throws Exception {
+    X86.Reg r = regOf(dst, c);
+    if (r != null)
+      c.out.emit2("movslq", X86.resize_reg(X86.Size.L, reg), r);
+    else
+      c.out.emitRM("movl", X86.resize_reg(X86.Size.L, reg), X86.RSP, varOffset(dst, c));
+  }
+
+  // A variable's register, or null if it is kept in its frame slot
+  // (or is not a variable)
   //
-  static X86.Mem gen_addr(IR1.Addr addr, X86.Reg tempReg) throws Exception {
-    to_reg(addr.base, tempReg);
-    return new X86.Mem(tempReg, addr.offset);
+  static X86.Reg regOf(Object n, FuncContext c) {
+    if (c.regs == null || !(n instanceof IR1.Id || n instanceof IR1.Temp))
+      return null;
+    int idx = c.slots.lookup(n);
+    return (idx < 0) ? null : c.regs[idx];
   }
 }
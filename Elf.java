@@ -0,0 +1,636 @@
+// This is supporting software for CS322 Compilers and Language Design II
+// Copyright (c) Portland State University
+//---------------------------------------------------------------------------
+// For CS322 W'16 (J. Li).
+//
+
+// ELF64 relocatable object output. (Alternative to assembly text)
+//
+// ObjEmitter takes the same emit calls as X86.Emitter, but encodes
+// each instruction into x86-64 machine code instead of printing it.
+// finish() writes a .o with:
+//
+// - .text    all functions, each .globl label a global FUNC symbol
+// - .rodata  the string literals (emitStringLit)
+// - .rela.text  R_X86_64_PLT32 for every call, R_X86_64_PC32 for
+//   rip-relative references to strings and external symbols
+//
+// Jumps to function-local labels are resolved in place (always in
+// the rel32 form; there is no branch relaxation). The object links
+// like the assembled text would:
+//
+//   java CodeGen -c -o prog.o prog.ir && gcc -o prog prog.o lib.c
+//
+// Only the instruction subset the code generator uses is encoded;
+// anything else fails with an IOException naming the instruction.
+//
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+
+class Elf {
+
+  // Growable byte array with little-endian writes and patching
+  //
+  static class Bytes {
+    byte[] b = new byte[256];
+    int size = 0;
+
+    void put(int v) {
+      if (size == b.length)
+	b = Arrays.copyOf(b, size * 2);
+      b[size++] = (byte) v;
+    }
+    void put16(int v) { put(v); put(v >> 8); }
+    void put32(int v) { put16(v); put16(v >> 16); }
+    void put64(long v) { put32((int) v); put32((int) (v >> 32)); }
+    void put(Bytes o) { for (int i = 0; i < o.size; i++) put(o.b[i]); }
+    void put(String s) { for (int i = 0; i < s.length(); i++) put(s.charAt(i)); }
+    void patch32(int at, int v) {
+      for (int i = 0; i < 4; i++)
+	b[at + i] = (byte) (v >> (8 * i));
+    }
+    void align(int n, int fill) {
+      while (size % n != 0)
+	put(fill);
+    }
+  }
+
+  // A reference to a label, resolved in finish()
+  //
+  static class Fixup {
+    static final int JUMP = 0, CALL = 1, RIP = 2;
+    int pos;		// offset of the rel32 field in .text
+    int kind;
+    String name;
+    int adj;		// rel32 field's offset from the end of its instruction
+
+    Fixup(int pos, int kind, String name) {
+      this.pos=pos; this.kind=kind; this.name=name; this.adj=-4;
+    }
+  }
+
+  // Condition codes, by setcc/jcc suffix
+  static final Map<String,Integer> cc = new HashMap<String,Integer>();
+  static {
+    String[][] names = {{"o"}, {"no"}, {"b", "c", "nae"}, {"ae", "nb", "nc"},
+			{"e", "z"}, {"ne", "nz"}, {"be", "na"}, {"a", "nbe"},
+			{"s"}, {"ns"}, {"p", "pe"}, {"np", "po"},
+			{"l", "nge"}, {"ge", "nl"}, {"le", "ng"}, {"g", "nle"}};
+    for (int i = 0; i < names.length; i++)
+      for (String n: names[i])
+	cc.put(n, i);
+  }
+
+  // Hardware register numbers, indexed by X86.Reg.r (which follows
+  // the order of X86.regName, not the encoding)
+  static final int[] hw = {0, 3, 1, 2, 6, 7, 5, 4, 8, 9, 10, 11, 12, 13, 14, 15};
+
+  // Group-1 ALU ops; opcodes are digit*8 + 1 (r -> r/m), + 3 (r/m -> r)
+  static final Map<String,Integer> alu = new HashMap<String,Integer>();
+  static {
+    String[] names = {"add", "or", null, null, "and", "sub", "xor", "cmp"};
+    for (int i = 0; i < names.length; i++)
+      if (names[i] != null)
+	alu.put(names[i], i);
+  }
+
+  static class ObjEmitter extends X86.Emitter {
+    final Bytes text = new Bytes();
+    final Bytes rodata = new Bytes();
+    final Map<String,Integer> labels = new HashMap<String,Integer>();	// .text offsets
+    final Map<String,Integer> strings = new HashMap<String,Integer>();	// .rodata offsets
+    final List<String> funcs = new ArrayList<String>();	// symbol labels, in order
+    final Set<String> globals = new HashSet<String>();
+    final List<Fixup> fixups = new ArrayList<Fixup>();
+    private int ripFixup = -1;		// rip-relative fixup of the current instruction
+
+    // scratch operands for the primitive emit paths
+    private final X86.Mem mem = new X86.Mem(X86.RSP, 0);
+    private final X86.Imm imm = new X86.Imm(0);
+
+    ObjEmitter(WritableByteChannel sink) { super(sink, 1); }
+
+    static ObjEmitter toStdout() {
+      return new ObjEmitter(Channels.newChannel(new FileOutputStream(FileDescriptor.out)));
+    }
+    static ObjEmitter toFile(File f) throws IOException {
+      return new ObjEmitter(new FileOutputStream(f).getChannel());
+    }
+
+    X86.Emitter fork() { return new ObjEmitter(null); }
+
+    // Text-only operations
+    void put(char c) throws IOException {
+      throw new IOException("Raw assembly text in object output");
+    }
+    void emit(String s) throws IOException {
+      throw new IOException("Raw assembly text in object output: " + s);
+    }
+    void emitComment(String s) {}
+    void emitComment(ir.IR1.Printable p) {}
+    void flush() {}
+    long bytes() { return text.size + rodata.size; }
+
+    // Directives and zero-operand instructions
+    void emit0(String op) throws IOException {
+      if (op.startsWith(".p2align")) {
+	String[] args = op.substring(8).trim().split(",");
+	int fill = (args.length > 1) ? Integer.decode(args[1].trim()) : 0;
+	text.align(1 << Integer.parseInt(args[0].trim()), fill);
+	return;
+      }
+      if (op.startsWith(".text"))
+	return;
+      switch (op) {
+      case "ret":  text.put(0xc3); break;
+      case "cqto": text.put(0x48); text.put(0x99); break;
+      case "cltd": text.put(0x99); break;
+      case "cltq": text.put(0x48); text.put(0x98); break;
+      default: throw unsupported(op);
+      }
+      instCnt++;
+    }
+
+    void emit1(String op, X86.Operand rand1) throws IOException {
+      if (op.equals(".globl")) {
+	globals.add(((X86.Label) rand1).s);
+	return;
+      }
+      encode(op, rand1, null);
+      instCnt++;
+    }
+
+    void emit2(String op, X86.Operand rand1, X86.Operand rand2) throws IOException {
+      encode(op, rand1, rand2);
+      instCnt++;
+    }
+
+    void emitRM(String op, X86.Reg r, X86.Reg base, int offset) throws IOException {
+      mem.base = base; mem.offset = offset;
+      emit2(op, r, mem);
+      if (base == X86.RSP) frameStores++;
+    }
+
+    void emitMR(String op, X86.Reg base, int offset, X86.Reg r) throws IOException {
+      mem.base = base; mem.offset = offset;
+      emit2(op, mem, r);
+      if (base == X86.RSP) frameLoads++;
+    }
+
+    void emitIR(String op, int i, X86.Reg r) throws IOException {
+      imm.i = i;
+      emit2(op, imm, r);
+    }
+
+    void emitAddrName(String op, String prefix, int num, X86.Reg r) throws IOException {
+      emit2(op, new X86.AddrName(prefix + num), r);
+    }
+
+    void emitJump(String op, String fn, String lab) throws IOException {
+      branch(op, (lab == null) ? fn : fn + "_" + lab);
+      instCnt++;
+    }
+
+    void emitLabel(X86.Label lab) throws IOException {
+      define(lab.s);
+      funcs.add(lab.s);
+    }
+
+    void emitLabel(String fn, String lab) throws IOException {
+      define(fn + "_" + lab);
+    }
+
+    void emitString(String s) throws IOException {
+      asciz(s);
+    }
+
+    void emitStringLit(X86.Label lab, String s) throws IOException {
+      if (strings.put(lab.s, rodata.size) != null)
+	throw new IOException("Duplicate label: " + lab.s);
+      asciz(s);
+    }
+
+    // Splice in a forked emitter's code (see CodeGen.genParallel)
+    void append(X86.Emitter e) throws IOException {
+      ObjEmitter o = (ObjEmitter) e;
+      text.align(16, 0x90);	// keep the forked code's own alignment
+      int base = text.size;
+      text.put(o.text);
+      for (Map.Entry<String,Integer> l: o.labels.entrySet())
+	if (labels.put(l.getKey(), base + l.getValue()) != null)
+	  throw new IOException("Duplicate label: " + l.getKey());
+      funcs.addAll(o.funcs);
+      globals.addAll(o.globals);
+      for (Fixup f: o.fixups) {
+	f.pos += base;
+	fixups.add(f);
+      }
+      if (o.rodata.size > 0)
+	throw new IOException("String literals in a forked emitter");
+      instCnt += o.instCnt;
+      frameLoads += o.frameLoads;
+      frameStores += o.frameStores;
+    }
+
+    private void define(String name) throws IOException {
+      if (labels.put(name, text.size) != null)
+	throw new IOException("Duplicate label: " + name);
+    }
+
+    // .asciz: the bytes, with the assembler's escapes, then a 0
+    private void asciz(String s) {
+      for (int i = 0; i < s.length(); i++) {
+	char c = s.charAt(i);
+	if (c == '\\' && i+1 < s.length()) {
+	  c = s.charAt(++i);
+	  switch (c) {
+	  case 'n': c = '\n'; break;
+	  case 't': c = '\t'; break;
+	  case 'r': c = '\r'; break;
+	  case 'b': c = '\b'; break;
+	  case 'f': c = '\f'; break;
+	  default:
+	    if (c >= '0' && c <= '7') {
+	      int v = c - '0';
+	      for (int k = 0; k < 2 && i+1 < s.length()
+		     && s.charAt(i+1) >= '0' && s.charAt(i+1) <= '7'; k++)
+		v = v * 8 + (s.charAt(++i) - '0');
+	      c = (char) (v & 0xff);
+	    }
+	  }
+	}
+	rodata.put(c);
+      }
+      rodata.put(0);
+    }
+
+    // Instruction encoding
+    //------------------------------------------------------------------
+
+    // AT&T order: rand1 is the source, rand2 the destination; a
+    // one-operand instruction has rand2 == null.
+    //
+    private void encode(String op, X86.Operand a, X86.Operand b) throws IOException {
+      ripFixup = -1;
+      if (a instanceof X86.Label) {
+	branch(op, ((X86.Label) a).s);
+	return;
+      }
+      if (b == null)
+	encode1(op, a);
+      else
+	encode2(op, a, b);
+      if (ripFixup >= 0) {
+	Fixup f = fixups.get(ripFixup);
+	f.adj = f.pos - text.size;
+      }
+    }
+
+    private void encode1(String op, X86.Operand a) throws IOException {
+      if (op.startsWith("set") && cc.containsKey(op.substring(3))) {
+	modrm(0, 0, a, true, 0x0f90 + cc.get(op.substring(3)));
+	return;
+      }
+      int w = width(op);
+      String base = op.substring(0, op.length() - 1);
+      switch (base) {
+      case "idiv": modrm(w, 7, a, false, 0xf7); return;
+      case "div":  modrm(w, 6, a, false, 0xf7); return;
+      case "neg":  modrm(w, 3, a, false, 0xf7); return;
+      case "not":  modrm(w, 2, a, false, 0xf7); return;
+      case "inc":  modrm(w, 0, a, false, 0xff); return;
+      case "dec":  modrm(w, 1, a, false, 0xff); return;
+      case "push":
+	if (w == 1 && a instanceof X86.Reg) { pushPop(0x50, (X86.Reg) a); return; }
+	break;
+      case "pop":
+	if (w == 1 && a instanceof X86.Reg) { pushPop(0x58, (X86.Reg) a); return; }
+	break;
+      }
+      throw unsupported(op + " " + a);
+    }
+
+    private void encode2(String op, X86.Operand a, X86.Operand b) throws IOException {
+      switch (op) {
+      case "movslq": modrm(1, reg(b), a, false, 0x63); return;
+      case "movzbl": modrm(0, reg(b), a, true, 0x0fb6); return;
+      case "movzbq": modrm(1, reg(b), a, true, 0x0fb6); return;
+      case "leaq":   modrm(1, reg(b), a, false, 0x8d); return;
+      case "leal":   modrm(0, reg(b), a, false, 0x8d); return;
+      }
+      int w = width(op);
+      String base = op.substring(0, op.length() - 1);
+      if (base.equals("mov")) {
+	if (a instanceof X86.Imm) {
+	  int i = ((X86.Imm) a).i;
+	  if (w == 0 && b instanceof X86.Reg) {	// movl $i,%r: B8+r id
+	    int n = hw[((X86.Reg) b).r];
+	    if (n > 7) text.put(0x41);
+	    text.put(0xb8 + (n & 7));
+	  } else {
+	    modrm(w, 0, b, false, 0xc7);
+	  }
+	  text.put32(i);
+	} else if (a instanceof X86.Reg) {
+	  modrm(w, reg(a), b, false, 0x89);
+	} else {
+	  modrm(w, reg(b), a, false, 0x8b);
+	}
+	return;
+      }
+      if (base.equals("imul")) {
+	if (a instanceof X86.Imm) {
+	  int i = ((X86.Imm) a).i;
+	  boolean small = (i == (byte) i);
+	  modrm(w, reg(b), b, false, small ? 0x6b : 0x69);
+	  if (small) text.put(i); else text.put32(i);
+	} else {
+	  modrm(w, reg(b), a, false, 0x0faf);
+	}
+	return;
+      }
+      Integer d = alu.get(base);
+      if (d == null)
+	throw unsupported(op + " " + a + "," + b);
+      if (a instanceof X86.Imm) {
+	int i = ((X86.Imm) a).i;
+	if (i == (byte) i) {
+	  modrm(w, d, b, false, 0x83);
+	  text.put(i);
+	} else {
+	  modrm(w, d, b, false, 0x81);
+	  text.put32(i);
+	}
+      } else if (a instanceof X86.Reg) {
+	modrm(w, reg(a), b, false, d * 8 + 1);
+      } else {
+	modrm(w, reg(b), a, false, d * 8 + 3);
+      }
+    }
+
+    // jcc/jmp to a local label, or call to a (possibly external) function
+    private void branch(String op, String target) throws IOException {
+      if (op.equals("call")) {
+	text.put(0xe8);
+	fixups.add(new Fixup(text.size, Fixup.CALL, target));
+      } else if (op.equals("jmp")) {
+	text.put(0xe9);
+	fixups.add(new Fixup(text.size, Fixup.JUMP, target));
+      } else if (op.startsWith("j") && cc.containsKey(op.substring(1))) {
+	text.put(0x0f);
+	text.put(0x80 + cc.get(op.substring(1)));
+	fixups.add(new Fixup(text.size, Fixup.JUMP, target));
+      } else {
+	throw unsupported(op + " " + target);
+      }
+      text.put32(0);
+    }
+
+    private void pushPop(int opc, X86.Reg r) {
+      int n = hw[r.r];
+      if (n > 7) text.put(0x41);
+      text.put(opc + (n & 7));
+    }
+
+    // [REX] opcode ModRM [SIB] [disp] for a reg field and an r/m
+    // operand (register, base+index*scale+offset, or name(%rip)).
+    // Byte-register r/m operands %spl..%dil need a REX prefix to not
+    // mean %ah..%bh.
+    //
+    private void modrm(int w, int reg, X86.Operand rm, boolean byteRm, int opc)
+      throws IOException {
+      int rex = (w << 3) | ((reg >> 3) << 2);
+      boolean force = false;
+      if (rm instanceof X86.Reg) {
+	int n = hw[((X86.Reg) rm).r];
+	rex |= n >> 3;
+	force = byteRm && n >= 4 && n <= 7;
+      } else if (rm instanceof X86.Mem) {
+	X86.Mem m = (X86.Mem) rm;
+	rex |= hw[m.base.r] >> 3;
+	if (m.index != null)
+	  rex |= (hw[m.index.r] >> 3) << 1;
+      } else if (!(rm instanceof X86.AddrName)) {
+	throw unsupported("operand " + rm);
+      }
+      if (rex != 0 || force)
+	text.put(0x40 | rex);
+      if (opc > 0xff)
+	text.put(opc >> 8);
+      text.put(opc & 0xff);
+
+      int r3 = (reg & 7) << 3;
+      if (rm instanceof X86.Reg) {
+	text.put(0xc0 | r3 | (hw[((X86.Reg) rm).r] & 7));
+      } else if (rm instanceof X86.AddrName) {
+	text.put(0x05 | r3);
+	ripFixup = fixups.size();
+	fixups.add(new Fixup(text.size, Fixup.RIP, ((X86.AddrName) rm).s));
+	text.put32(0);
+      } else {
+	X86.Mem m = (X86.Mem) rm;
+	int b = hw[m.base.r] & 7;
+	int mod = (m.offset == 0 && b != 5) ? 0 : (m.offset == (byte) m.offset) ? 1 : 2;
+	if (m.index != null) {
+	  int ss = Integer.numberOfTrailingZeros(m.scale);
+	  text.put((mod << 6) | r3 | 4);
+	  text.put((ss << 6) | ((hw[m.index.r] & 7) << 3) | b);
+	} else {
+	  text.put((mod << 6) | r3 | b);
+	  if (b == 4)
+	    text.put(0x24);		// SIB: base only
+	}
+	if (mod == 1) text.put(m.offset);
+	else if (mod == 2) text.put32(m.offset);
+      }
+    }
+
+    // Operand size from the mnemonic's suffix: 1 for q (REX.W), 0 for l
+    private int width(String op) throws IOException {
+      char s = op.charAt(op.length() - 1);
+      if (s == 'q') return 1;
+      if (s == 'l') return 0;
+      throw unsupported(op);
+    }
+
+    // Hardware number of a register operand
+    private int reg(X86.Operand o) throws IOException {
+      if (!(o instanceof X86.Reg))
+	throw unsupported("operand " + o + " (expected a register)");
+      return hw[((X86.Reg) o).r];
+    }
+
+    private IOException unsupported(String inst) {
+      return new IOException("Cannot encode instruction: " + inst);
+    }
+
+    // Object file
+    //------------------------------------------------------------------
+
+    static final int SHT_PROGBITS = 1, SHT_SYMTAB = 2, SHT_STRTAB = 3, SHT_RELA = 4;
+    static final int SHF_ALLOC = 2, SHF_EXECINSTR = 4, SHF_INFO_LINK = 0x40;
+    static final int STB_LOCAL = 0, STB_GLOBAL = 1;
+    static final int STT_NOTYPE = 0, STT_FUNC = 2, STT_SECTION = 3;
+    static final int R_X86_64_PC32 = 2, R_X86_64_PLT32 = 4;
+
+    // section indices
+    static final int TEXT = 1, RODATA = 2, RELA = 3, SYMTAB = 4, STRTAB = 5,
+      SHSTRTAB = 6, NOTE = 7, NSECTIONS = 8;
+
+    // Resolve labels and write the object file to the sink
+    void finish() throws IOException {
+      // symbols: null, the two section symbols, local then global
+      // functions, then external references
+      List<String> syms = new ArrayList<String>();
+      Map<String,Integer> symIndex = new HashMap<String,Integer>();
+      for (String f: funcs)
+	if (!globals.contains(f)) { symIndex.put(f, 3 + syms.size()); syms.add(f); }
+      int firstGlobal = 3 + syms.size();
+      for (String f: funcs)
+	if (globals.contains(f)) { symIndex.put(f, 3 + syms.size()); syms.add(f); }
+      int firstExtern = 3 + syms.size();
+
+      Bytes rela = new Bytes();
+      for (Fixup f: fixups) {
+	Integer at = labels.get(f.name);
+	if (f.kind == Fixup.JUMP) {
+	  if (at == null)
+	    throw new IOException("Undefined label: " + f.name);
+	  text.patch32(f.pos, at - (f.pos - f.adj));
+	} else if (f.kind == Fixup.RIP && at != null) {
+	  text.patch32(f.pos, at - (f.pos - f.adj));
+	} else if (f.kind == Fixup.RIP && strings.containsKey(f.name)) {
+	  reloc(rela, f.pos, RODATA, R_X86_64_PC32, strings.get(f.name) + f.adj);
+	} else {
+	  Integer s = symIndex.get(f.name);
+	  if (s == null) {
+	    s = 3 + syms.size();
+	    symIndex.put(f.name, s);
+	    syms.add(f.name);
+	  }
+	  reloc(rela, f.pos, s, f.kind == Fixup.CALL ? R_X86_64_PLT32 : R_X86_64_PC32, f.adj);
+	}
+      }
+
+      // each function runs to the next one's label (or the end of .text)
+      Map<String,Integer> ends = new HashMap<String,Integer>();
+      for (int k = 0; k < funcs.size(); k++)
+	ends.putIfAbsent(funcs.get(k), (k + 1 < funcs.size()) ? labels.get(funcs.get(k + 1)) : text.size);
+
+      Bytes strtab = new Bytes();
+      strtab.put(0);
+      Bytes symtab = new Bytes();
+      symbol(symtab, 0, 0, 0, 0, 0);
+      symbol(symtab, 0, STT_SECTION, TEXT, 0, 0);
+      symbol(symtab, 0, STT_SECTION, RODATA, 0, 0);
+      for (int i = 0; i < syms.size(); i++) {
+	String s = syms.get(i);
+	int name = strtab.size;
+	strtab.put(s);
+	strtab.put(0);
+	int idx = 3 + i;
+	if (idx < firstExtern) {
+	  int start = labels.get(s);
+	  int end = ends.get(s);
+	  symbol(symtab, name, (idx < firstGlobal ? STB_LOCAL : STB_GLOBAL) << 4 | STT_FUNC,
+		 TEXT, start, Math.max(end - start, 0));
+	} else {
+	  symbol(symtab, name, STB_GLOBAL << 4 | STT_NOTYPE, 0, 0, 0);
+	}
+      }
+
+      String[] names = {"", ".text", ".rodata", ".rela.text", ".symtab", ".strtab",
+			".shstrtab", ".note.GNU-stack"};
+      Bytes shstrtab = new Bytes();
+      int[] nameOff = new int[NSECTIONS];
+      for (int i = 0; i < NSECTIONS; i++) {
+	nameOff[i] = shstrtab.size;
+	shstrtab.put(names[i]);
+	shstrtab.put(0);
+      }
+
+      // layout: header, section contents (8-aligned), section headers
+      Bytes out = new Bytes();
+      Bytes[] data = {null, text, rodata, rela, symtab, strtab, shstrtab, new Bytes()};
+      int[] off = new int[NSECTIONS];
+      int pos = 64;
+      for (int i = 1; i < NSECTIONS; i++) {
+	pos = (pos + 15) & ~15;
+	off[i] = pos;
+	pos += data[i].size;
+      }
+      int shoff = (pos + 7) & ~7;
+
+      out.put(0x7f); out.put("ELF");
+      out.put(2); out.put(1); out.put(1); out.put(0);	// 64-bit, LE, v1, SysV
+      out.put64(0);
+      out.put16(1);			// ET_REL
+      out.put16(62);			// EM_X86_64
+      out.put32(1);
+      out.put64(0);			// entry
+      out.put64(0);			// phoff
+      out.put64(shoff);
+      out.put32(0);			// flags
+      out.put16(64);			// ehsize
+      out.put16(0); out.put16(0);	// phentsize, phnum
+      out.put16(64);			// shentsize
+      out.put16(NSECTIONS);
+      out.put16(SHSTRTAB);
+      for (int i = 1; i < NSECTIONS; i++) {
+	out.align(16, 0);
+	out.put(data[i]);
+      }
+      out.align(8, 0);
+
+      section(out, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+      section(out, nameOff[TEXT], SHT_PROGBITS, SHF_ALLOC|SHF_EXECINSTR, off[TEXT], text.size, 0, 0, 16, 0);
+      section(out, nameOff[RODATA], SHT_PROGBITS, SHF_ALLOC, off[RODATA], rodata.size, 0, 0, 1, 0);
+      section(out, nameOff[RELA], SHT_RELA, SHF_INFO_LINK, off[RELA], rela.size, SYMTAB, TEXT, 8, 24);
+      section(out, nameOff[SYMTAB], SHT_SYMTAB, 0, off[SYMTAB], symtab.size, STRTAB, firstGlobal, 8, 24);
+      section(out, nameOff[STRTAB], SHT_STRTAB, 0, off[STRTAB], strtab.size, 0, 0, 1, 0);
+      section(out, nameOff[SHSTRTAB], SHT_STRTAB, 0, off[SHSTRTAB], shstrtab.size, 0, 0, 1, 0);
+      section(out, nameOff[NOTE], SHT_PROGBITS, 0, off[NOTE], 0, 0, 0, 1, 0);
+
+      Events.Flush ev = Events.enabled ? new Events.Flush() : null;
+      if (ev != null) ev.begin();
+      ByteBuffer bb = ByteBuffer.wrap(out.b, 0, out.size);
+      while (bb.hasRemaining())
+	sink.write(bb);
+      if (ev != null && ev.shouldCommit()) {
+	ev.bytes = out.size;
+	ev.commit();
+      }
+    }
+
+    private static void reloc(Bytes rela, int pos, int sym, int type, long addend) {
+      rela.put64(pos);
+      rela.put64(((long) sym << 32) | type);
+      rela.put64(addend);
+    }
+
+    private static void symbol(Bytes symtab, int name, int info, int shndx, long value, long size) {
+      symtab.put32(name);
+      symtab.put(info);
+      symtab.put(0);
+      symtab.put16(shndx);
+      symtab.put64(value);
+      symtab.put64(size);
+    }
+
+    private static void section(Bytes out, int name, int type, long flags, long offset, long size,
+				int link, int info, long align, long entsize) {
+      out.put32(name);
+      out.put32(type);
+      out.put64(flags);
+      out.put64(0);
+      out.put64(offset);
+      out.put64(size);
+      out.put32(link);
+      out.put32(info);
+      out.put64(align);
+      out.put64(entsize);
+    }
+  }
+}
@@ -0,0 +1,68 @@
+// This is supporting software for CS322 Compilers and Language Design II
+// Copyright (c) Portland State University
+//---------------------------------------------------------------------------
+// For CS322 W'16 (J. Li).
+//
+
+// JDK Flight Recorder events for the compiler's phases
+//
+// - cs322.Parse:   parsing one input (IR1Parser.Program, or reading
+//                  the binary form)
+// - cs322.GenFunc: CodeGen.gen(IR1.Func), one per function
+// - cs322.Flush:   an emitter writing its buffer to the output
+//
+// Loading JFR adds a few hundred ms to JVM startup, so the events are
+// only created when enabled by --jfr, for a compile or for a compile
+// server (where a recording may then be started at any time with jcmd
+// JFR.start). Even then they are only recorded while a recording is
+// running, e.g.
+//
+//   java -XX:StartFlightRecording=filename=cg.jfr CodeGen --jfr -d out tst/*.ir
+//   jfr print --categories CodeGen cg.jfr
+//
+import jdk.jfr.*;
+
+class Events {
+  static boolean enabled;
+
+  @Name("cs322.Parse")
+  @Label("Parse IR1")
+  @Category("CodeGen")
+  static class Parse extends Event {
+    @Label("Input")
+    String input;
+
+    @Label("Functions")
+    int funcs;
+
+    @Label("IR Instructions")
+    int irInsts;
+  }
+
+  @Name("cs322.GenFunc")
+  @Label("Generate Function")
+  @Category("CodeGen")
+  static class GenFunc extends Event {
+    @Label("Function")
+    String func;
+
+    @Label("IR Instructions")
+    int irInsts;
+
+    @Label("Temps")
+    int temps;
+
+    @Label("Bytes Emitted")
+    @DataAmount
+    long bytes;
+  }
+
+  @Name("cs322.Flush")
+  @Label("Flush Output")
+  @Category("CodeGen")
+  static class Flush extends Event {
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+  }
+}
@@ -0,0 +1,430 @@
+// This is supporting software for CS322 Compilers and Language Design II
+// Copyright (c) Portland State University
+//---------------------------------------------------------------------------
+// For CS322 W'16 (J. Li).
+//
+
+// IR1 workload generator. (For scaling tests of CodeGen)
+//
+// Usage: IR1Gen [-seed n] [-funcs n] [-insts n] [-temps n] [-branch pct]
+//               [-call pct] [-strings n] [-loops depth] [-o prefix]
+//
+// Writes a random, valid IR1 program (see IR1Grammar.txt) of the given
+// shape to stdout, or to prefix.ir. The same seed and shape always
+// give the same program. With -o, the program is also run through a
+// small IR1 interpreter and what it prints is written to
+// prefix.out.ref, the file ./run compares against -- unless the run
+// takes more than STEP_LIMIT instructions, in which case only the .ir
+// is written.
+//
+// Shape:
+//   -funcs    functions, including _main (default 4)
+//   -insts    instructions per function body, roughly (default 50)
+//   -temps    distinct temps per function (default 10)
+//   -branch   percent of instructions that are forward conditional
+//             jumps over a few instructions (default 10)
+//   -call     percent of instructions that are calls: to a later
+//             function (so there is no recursion), _printInt or
+//             _printStr (default 10)
+//   -strings  distinct string literals in the program (default 2)
+//   -loops    deepest loop nesting per function (default 1); each loop
+//             runs 2 to 4 times
+//
+// _main additionally prints each string literal once at its start,
+// and calls every other function once at its end, printing the result.
+//
+// Values are ints with Java (32-bit, wrapping) arithmetic. Division
+// is only by a literal 1..9. There are no Loads or Stores (the
+// interpreter has no memory). Every temp is defined on every path
+// before it is used.
+//
+// The .out.ref gives IR1's meaning of the program (IR1Grammar.txt),
+// not what this tree's CodeGen makes of it: CodeGen's CJump always
+// emits je, and its relational Binops only get ==, < and > right. A
+// program comparing with the other operators (most do, at the default
+// -branch) only matches its .out.ref once CodeGen implements them.
+//
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import ir.*;
+
+class IR1Gen {
+  static final long STEP_LIMIT = 10000000;
+
+  long seed = 1;
+  int funcs = 4, insts = 50, temps = 10, branch = 10, call = 10, strings = 2, loops = 1;
+
+  public static void main(String [] args) throws Exception {
+    IR1Gen g = new IR1Gen();
+    String prefix = null;
+    for (int i = 0; i < args.length; i += 2) {
+      if (i+1 == args.length)
+	usage();
+      String a = args[i], v = args[i+1];
+      if (a.equals("-o"))
+	prefix = v;
+      else if (a.equals("-seed"))
+	g.seed = Long.parseLong(v);
+      else if (a.equals("-funcs"))
+	g.funcs = Math.max(1, Integer.parseInt(v));
+      else if (a.equals("-insts"))
+	g.insts = Integer.parseInt(v);
+      else if (a.equals("-temps"))
+	g.temps = Math.max(1, Integer.parseInt(v));
+      else if (a.equals("-branch"))
+	g.branch = Integer.parseInt(v);
+      else if (a.equals("-call"))
+	g.call = Integer.parseInt(v);
+      else if (a.equals("-strings"))
+	g.strings = Integer.parseInt(v);
+      else if (a.equals("-loops"))
+	g.loops = Integer.parseInt(v);
+      else
+	usage();
+    }
+    String text = g.program();
+    if (prefix == null) {
+      System.out.print(text);
+      return;
+    }
+    Files.write(Paths.get(prefix + ".ir"), text.getBytes(StandardCharsets.UTF_8));
+    try {
+      String out = run(new IR1Parser(new StringReader(text)).Program());
+      Files.write(Paths.get(prefix + ".out.ref"), out.getBytes(StandardCharsets.UTF_8));
+    } catch (RunException e) {
+      System.err.println(prefix + ".ir: no expected output: " + e.getMessage());
+    }
+  }
+
+  static void usage() {
+    System.err.println("Usage: IR1Gen [-seed n] [-funcs n] [-insts n] [-temps n] [-branch pct]\n"
+		       + "              [-call pct] [-strings n] [-loops depth] [-o prefix]");
+    System.exit(2);
+  }
+
+  //----------------------------------------------------------------------------------
+  // Generator
+  //-----------
+
+  Random r;
+  StringBuilder sb;
+
+  // Per-function state
+  int fn;			// function number (0 is _main)
+  int labels;			// labels used
+  int budget;			// instructions left to generate
+  int nextTemp;			// temps are defined round-robin
+  boolean[] defined;		// temp is defined on every path to here
+  List<Integer> avail;		// the defined temps, in order of definition
+
+  String program() {
+    r = new Random(seed);
+    sb = new StringBuilder();
+    sb.append("# IR1Gen -seed ").append(seed).append(" -funcs ").append(funcs)
+      .append(" -insts ").append(insts).append(" -temps ").append(temps)
+      .append(" -branch ").append(branch).append(" -call ").append(call)
+      .append(" -strings ").append(strings).append(" -loops ").append(loops).append("\n");
+    for (fn = 0; fn < funcs; fn++)
+      func();
+    return sb.toString();
+  }
+
+  static String name(int fn) {
+    return fn == 0 ? "_main" : "_f" + fn;
+  }
+
+  static String str(int k) {
+    return "\"str" + k + "\"";
+  }
+
+  void func() {
+    labels = 0;
+    budget = insts;
+    nextTemp = 0;
+    defined = new boolean[temps];
+    avail = new ArrayList<Integer>();
+
+    sb.append("\n").append(name(fn)).append(fn == 0 ? " ()\n" : " (a, b)\n");
+    sb.append("(x");
+    for (int d = 0; d < loops; d++)
+      sb.append(", i").append(d);
+    sb.append(")\n{\n");
+    sb.append(" x = ").append(r.nextInt(100)).append("\n");
+    if (fn == 0)
+      for (int k = 0; k < strings; k++)
+	sb.append(" call _printStr(").append(str(k)).append(")\n");
+    block(0);
+    if (fn == 0) {
+      for (int f = 1; f < funcs; f++) {
+	String t = def();
+	sb.append(" ").append(t).append(" = call ").append(name(f)).append("(")
+	  .append(r.nextInt(100)).append(", ").append(r.nextInt(100)).append(")\n");
+	sb.append(" call _printInt(").append(t).append(")\n");
+      }
+      sb.append(" return\n}\n");
+    } else {
+      sb.append(" return ").append(src()).append("\n}\n");
+    }
+  }
+
+  // Generate instructions until the budget runs out, at loop depth
+  // depth. Forward jumps opened here are closed here too.
+  //
+  void block(int depth) {
+    Deque<int[]> skips = new ArrayDeque<int[]>();	// {label, insts to go, avail size}
+    while (budget > 0) {
+      int p = r.nextInt(100);
+      if (depth < loops && r.nextInt(8) == 0 && budget > 4) {
+	loop(depth);
+      } else if (p < branch) {
+	int lab = labels++;
+	sb.append(" if ").append(src()).append(' ').append(rop()).append(' ').append(src())
+	  .append(" goto L").append(lab).append("\n");
+	skips.push(new int[] { lab, 1 + r.nextInt(8), avail.size() });
+	budget--;
+      } else if (p < branch + call) {
+	callInst();
+      } else {
+	arith();
+      }
+      while (!skips.isEmpty() && --skips.peek()[1] <= 0)
+	close(skips.pop());
+    }
+    while (!skips.isEmpty())
+      close(skips.pop());
+  }
+
+  // A forward jump's target: temps first defined after the jump are no
+  // longer defined on every path
+  void close(int[] skip) {
+    sb.append("L").append(skip[0]).append(":\n");
+    while (avail.size() > skip[2])
+      defined[avail.remove(avail.size() - 1)] = false;
+  }
+
+  // A counted loop, body first (so it runs at least once, and the
+  // temps it defines stay defined after it)
+  void loop(int depth) {
+    int lab = labels++;
+    String i = "i" + depth;
+    int outer = budget - 3;
+    budget = Math.min(outer, 3 + r.nextInt(Math.max(1, outer / 2)));
+    outer -= budget;
+    sb.append(" ").append(i).append(" = 0\n");
+    sb.append("L").append(lab).append(":\n");
+    block(depth + 1);
+    sb.append(" ").append(i).append(" = ").append(i).append(" + 1\n");
+    sb.append(" if ").append(i).append(" < ").append(2 + r.nextInt(3))
+      .append(" goto L").append(lab).append("\n");
+    budget = outer;
+  }
+
+  void callInst() {
+    int k = r.nextInt(3);
+    if (k == 0 && fn > 0 && fn + 1 < funcs) {
+      String a = src(), b = src();
+      String t = def();
+      sb.append(" ").append(t).append(" = call ")
+	.append(name(fn + 1 + r.nextInt(funcs - fn - 1)))
+	.append("(").append(a).append(", ").append(b).append(")\n");
+    } else if (k == 1 && strings > 0) {
+      sb.append(" call _printStr(").append(str(r.nextInt(strings))).append(")\n");
+    } else {
+      sb.append(" call _printInt(").append(src()).append(")\n");
+    }
+    budget--;
+  }
+
+  void arith() {
+    String s1 = src(), s2 = src();
+    int k = r.nextInt(16);
+    String t = def();
+    sb.append(" ").append(t).append(" = ");
+    if (k < 3)
+      sb.append(s1).append(' ').append("+-*".charAt(k)).append(' ').append(s2);
+    else if (k < 8)
+      sb.append(s1).append(" + ").append(r.nextInt(100));
+    else if (k < 10)
+      sb.append(s1).append(" / ").append(1 + r.nextInt(9));
+    else if (k < 12)
+      sb.append(s1).append(' ').append(rop()).append(' ').append(s2);
+    else if (k < 13)
+      sb.append("-").append(s1);
+    else
+      sb.append(s1);
+    sb.append("\n");
+    budget--;
+  }
+
+  // All of IR1's, whether or not CodeGen implements them (see above)
+  static final String[] ROPS = { "==", "!=", "<", "<=", ">", ">=" };
+
+  String rop() {
+    return ROPS[r.nextInt(ROPS.length)];
+  }
+
+  // A source operand: a defined temp (mostly), a variable or a literal
+  String src() {
+    int k = r.nextInt(8);
+    if (k < 5 && !avail.isEmpty())
+      return "t" + avail.get(r.nextInt(avail.size()));
+    if (k < 6)
+      return "x";
+    if (k < 7 && fn > 0)
+      return r.nextBoolean() ? "a" : "b";
+    return Integer.toString(r.nextInt(100));
+  }
+
+  // The next temp to define
+  String def() {
+    int t = nextTemp++ % temps;
+    if (!defined[t]) {
+      defined[t] = true;
+      avail.add(t);
+    }
+    return "t" + t;
+  }
+
+  //----------------------------------------------------------------------------------
+  // Interpreter
+  //-------------
+
+  static class RunException extends Exception {
+    private static final long serialVersionUID = 1L;
+    public RunException(String msg) { super(msg); }
+  }
+
+  // Run a program's _main and return what it prints
+  //
+  static String run(IR1.Program p) throws RunException {
+    return new Interp(p).run();
+  }
+
+  static class Interp {
+    final Map<String,IR1.Func> funcs = new HashMap<String,IR1.Func>();
+    final Map<IR1.Func,Map<String,Integer>> labels = new HashMap<IR1.Func,Map<String,Integer>>();
+    final StringBuilder out = new StringBuilder();
+    long steps = 0;
+
+    Interp(IR1.Program p) {
+      for (IR1.Func f: p.funcs) {
+	funcs.put(f.gname.s, f);
+	Map<String,Integer> labs = new HashMap<String,Integer>();
+	for (int i = 0; i < f.code.length; i++)
+	  if (f.code[i] instanceof IR1.LabelDec)
+	    labs.put(((IR1.LabelDec) f.code[i]).lab.name, i);
+	labels.put(f, labs);
+      }
+    }
+
+    String run() throws RunException {
+      IR1.Func main = funcs.get("_main");
+      if (main == null)
+	throw new RunException("no _main");
+      call(main, new int[0]);
+      return out.toString();
+    }
+
+    int call(IR1.Func f, int[] args) throws RunException {
+      Map<Object,Integer> env = new HashMap<Object,Integer>();
+      for (int i = 0; i < f.params.length; i++)
+	env.put(f.params[i], i < args.length ? args[i] : 0);
+      Map<String,Integer> labs = labels.get(f);
+      int pc = 0;
+      while (pc < f.code.length) {
+	if (++steps > STEP_LIMIT)
+	  throw new RunException("more than " + STEP_LIMIT + " steps");
+	IR1.Inst n = f.code[pc++];
+	if (n instanceof IR1.Binop) {
+	  IR1.Binop b = (IR1.Binop) n;
+	  env.put(b.dst, binop(b.op, val(b.src1, env), val(b.src2, env)));
+	} else if (n instanceof IR1.Unop) {
+	  IR1.Unop u = (IR1.Unop) n;
+	  int v = val(u.src, env);
+	  env.put(u.dst, u.op == IR1.UOP.NEG ? -v : (v == 0 ? 1 : 0));
+	} else if (n instanceof IR1.Move) {
+	  env.put(((IR1.Move) n).dst, val(((IR1.Move) n).src, env));
+	} else if (n instanceof IR1.CJump) {
+	  IR1.CJump j = (IR1.CJump) n;
+	  if (binop(j.op, val(j.src1, env), val(j.src2, env)) != 0)
+	    pc = target(labs, j.lab);
+	} else if (n instanceof IR1.Jump) {
+	  pc = target(labs, ((IR1.Jump) n).lab);
+	} else if (n instanceof IR1.Call) {
+	  IR1.Call c = (IR1.Call) n;
+	  int v = call(c, env);
+	  if (c.rdst != null)
+	    env.put(c.rdst, v);
+	} else if (n instanceof IR1.Return) {
+	  IR1.Src v = ((IR1.Return) n).val;
+	  return v == null ? 0 : val(v, env);
+	} else if (!(n instanceof IR1.LabelDec)) {
+	  throw new RunException("cannot run " + n);
+	}
+      }
+      return 0;
+    }
+
+    int call(IR1.Call c, Map<Object,Integer> env) throws RunException {
+      String name = c.gname.s;
+      if (name.equals("_printStr") && c.args.length == 1 && c.args[0] instanceof IR1.StrLit) {
+	out.append(((IR1.StrLit) c.args[0]).s).append('\n');
+	return 0;
+      }
+      int[] args = new int[c.args.length];
+      for (int i = 0; i < args.length; i++)
+	args[i] = val(c.args[i], env);
+      if (name.equals("_printInt") && args.length == 1) {
+	out.append(args[0]).append('\n');
+	return 0;
+      }
+      if (name.equals("_printBool") && args.length == 1) {
+	out.append(args[0] == 0 ? "false" : "true").append('\n');
+	return 0;
+      }
+      IR1.Func f = funcs.get(name);
+      if (f == null)
+	throw new RunException("cannot call " + name);
+      return call(f, args);
+    }
+
+    static int target(Map<String,Integer> labs, IR1.Label lab) throws RunException {
+      Integer pc = labs.get(lab.name);
+      if (pc == null)
+	throw new RunException("no label " + lab.name);
+      return pc;
+    }
+
+    static int val(IR1.Src s, Map<Object,Integer> env) throws RunException {
+      if (s instanceof IR1.IntLit)
+	return ((IR1.IntLit) s).i;
+      if (s instanceof IR1.BoolLit)
+	return ((IR1.BoolLit) s).b ? 1 : 0;
+      Integer v = env.get(s);
+      if (v == null)
+	throw new RunException("no value for " + s);
+      return v;
+    }
+
+    static int binop(IR1.BOP op, int a, int b) throws RunException {
+      if (op == IR1.AOP.ADD) return a + b;
+      if (op == IR1.AOP.SUB) return a - b;
+      if (op == IR1.AOP.MUL) return a * b;
+      if (op == IR1.AOP.DIV) {
+	if (b == 0)
+	  throw new RunException("division by zero");
+	return a / b;
+      }
+      if (op == IR1.AOP.AND) return (a != 0 && b != 0) ? 1 : 0;
+      if (op == IR1.AOP.OR)  return (a != 0 || b != 0) ? 1 : 0;
+      if (op == IR1.ROP.EQ) return a == b ? 1 : 0;
+      if (op == IR1.ROP.NE) return a != b ? 1 : 0;
+      if (op == IR1.ROP.LT) return a < b ? 1 : 0;
+      if (op == IR1.ROP.LE) return a <= b ? 1 : 0;
+      if (op == IR1.ROP.GT) return a > b ? 1 : 0;
+      return a >= b ? 1 : 0;
+    }
+  }
+}
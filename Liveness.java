@@ -0,0 +1,296 @@
+// This is supporting software for CS322 Compilers and Language Design II
+// Copyright (c) Portland State University
+//---------------------------------------------------------------------------
+// For CS322 W'16 (J. Li).
+//
+
+// Liveness of an IR1 function's variables. (Backward dataflow)
+//
+// Variables are numbered by their stack slot (CodeGen.SlotTable), which
+// covers params, locals and temps. A variable with no slot (a use of
+// an undeclared name) is never live.
+//
+// Only a variable used in some block before being defined there can
+// be live across a block boundary; these "global" variables get a
+// second, dense numbering. Live-in sets are long[] bitsets over it,
+// stored one after another (block b's set is words [b*gwords,
+// (b+1)*gwords)); live-out is the union of the successors' live-in,
+// and each block's use and def sets are short lists (in the CFG's
+// compressed form). Temps are nearly always local to their block, so
+// the sets stay small even when a function has tens of thousands of
+// them.
+//
+// The sets are solved by a worklist swept in post-order (the reverse
+// post-order of the CFG, backwards), so a block is normally seen after
+// its successors and loop-free code settles in one sweep. Sets at
+// single instructions are computed on demand by stepping backward
+// from the end of the block, over full-width bitsets (slot numbering).
+//
+import java.util.*;
+import ir.*;
+
+class Liveness {
+  final CFG cfg;
+  final CodeGen.SlotTable slots;
+  final int words;			// words in a full-width (slot) set
+  final int globals;			// variables live across some block boundary
+  final int gwords;			// words in a per-block (global) set
+  final int[] global;			// dense number by slot, -1 if block-local
+  final int[] slotOf;			// slot by dense number
+  final int[] useStart, use;		// upward-exposed uses of each block
+  final int[] defStart, def;		// global variables each block defines
+  final long[] in;			// live-in of each block
+  int sweeps;				// post-order sweeps to converge
+  int[] vs = new int[8];		// operand slots of one instruction
+
+  Liveness(CFG cfg, CodeGen.SlotTable slots) {
+    this.cfg = cfg;
+    this.slots = slots;
+    IR1.Inst[] code = cfg.func.code;
+    int nb = cfg.size;
+    words = wordsFor(slots.size);
+
+    // find the upward-exposed uses; stamp[v] is 1 + the last block
+    // that defined v
+    int[] stamp = new int[slots.size];
+    global = new int[slots.size];
+    Arrays.fill(global, -1);
+    int g = 0;
+    for (int b = 0; b < nb; b++) {
+      for (int i = cfg.start[b]; i < cfg.start[b+1]; i++) {
+	int k = uses(code[i]);
+	for (int j = 0; j < k; j++) {
+	  int v = vs[j];
+	  if (stamp[v] != b + 1 && global[v] < 0)
+	    global[v] = g++;
+	}
+	int d = var(CodeGen.dest(code[i]));
+	if (d >= 0)
+	  stamp[d] = b + 1;
+      }
+    }
+    globals = g;
+    gwords = wordsFor(g);
+    slotOf = new int[g];
+    for (int v = 0; v < slots.size; v++)
+      if (global[v] >= 0)
+	slotOf[global[v]] = v;
+
+    // per-block use and def over the global numbering; a variable is
+    // listed once per block (seen[v] is 1 + the last block listing it)
+    useStart = new int[nb + 1];
+    defStart = new int[nb + 1];
+    int[] us = new int[16], ds = new int[16], seen = new int[slots.size];
+    int nu = 0, nd = 0;
+    Arrays.fill(stamp, 0);
+    for (int b = 0; b < nb; b++) {
+      useStart[b] = nu;
+      defStart[b] = nd;
+      for (int i = cfg.start[b]; i < cfg.start[b+1]; i++) {
+	int k = uses(code[i]);
+	for (int j = 0; j < k; j++) {
+	  int v = vs[j];
+	  if (stamp[v] != b + 1 && global[v] >= 0 && seen[v] != b + 1) {
+	    seen[v] = b + 1;
+	    if (nu == us.length)
+	      us = Arrays.copyOf(us, 2 * nu);
+	    us[nu++] = global[v];
+	  }
+	}
+	int d = var(CodeGen.dest(code[i]));
+	if (d >= 0 && stamp[d] != b + 1) {
+	  stamp[d] = b + 1;
+	  if (global[d] >= 0) {
+	    if (nd == ds.length)
+	      ds = Arrays.copyOf(ds, 2 * nd);
+	    ds[nd++] = global[d];
+	  }
+	}
+      }
+    }
+    useStart[nb] = nu;
+    defStart[nb] = nd;
+    use = Arrays.copyOf(us, nu);
+    def = Arrays.copyOf(ds, nd);
+    in = new long[nb * gwords];
+    if (g > 0)
+      solve();
+  }
+
+  // Sweep the blocks in post-order (then the unreachable ones) until
+  // no live-in set changes; a changed block requeues its predecessors
+  //
+  void solve() {
+    int nb = cfg.size;
+    int[] order = new int[nb];
+    int k = 0;
+    for (int i = cfg.rpo.length - 1; i >= 0; i--)
+      order[k++] = cfg.rpo[i];
+    for (int b = 0; b < nb; b++)
+      if (cfg.rpoNum[b] < 0)
+	order[k++] = b;
+    boolean[] queued = new boolean[nb];
+    Arrays.fill(queued, true);
+    int pending = nb;
+    long[] x = new long[gwords];
+    while (pending > 0) {
+      sweeps++;
+      for (int b: order) {
+	if (!queued[b])
+	  continue;
+	queued[b] = false;
+	pending--;
+	blockOut(b, x);
+	for (int e = defStart[b]; e < defStart[b+1]; e++)
+	  clear(x, def[e]);
+	for (int e = useStart[b]; e < useStart[b+1]; e++)
+	  set(x, 0, use[e]);
+	int base = b * gwords;
+	boolean changed = false;
+	for (int w = 0; w < gwords; w++)
+	  if (x[w] != in[base+w]) {
+	    in[base+w] = x[w];
+	    changed = true;
+	  }
+	if (changed)
+	  for (int e = cfg.predStart[b]; e < cfg.predStart[b+1]; e++) {
+	    int p = cfg.pred[e];
+	    if (!queued[p]) {
+	      queued[p] = true;
+	      pending++;
+	    }
+	  }
+      }
+    }
+  }
+
+  //----------------------------------------------------------------------------------
+  // Queries
+  //---------
+
+  // Fill x with block b's live-out set, over the global numbering
+  void blockOut(int b, long[] x) {
+    Arrays.fill(x, 0);
+    for (int e = cfg.succStart[b]; e < cfg.succStart[b+1]; e++) {
+      int base = cfg.succ[e] * gwords;
+      for (int w = 0; w < gwords; w++)
+	x[w] |= in[base+w];
+    }
+  }
+
+  // Is the variable with slot v live on entry to / exit from block b?
+  boolean liveIn(int b, int v) { return global[v] >= 0 && get(in, b * gwords, global[v]); }
+
+  boolean liveOut(int b, int v) {
+    if (global[v] < 0)
+      return false;
+    for (int e = cfg.succStart[b]; e < cfg.succStart[b+1]; e++)
+      if (get(in, cfg.succ[e] * gwords, global[v]))
+	return true;
+    return false;
+  }
+
+  // A new full-width set
+  long[] newSet() { return new long[words]; }
+
+  // Fill set with the variables live on exit from block b
+  void liveOut(int b, long[] set) {
+    Arrays.fill(set, 0);
+    for (int e = cfg.succStart[b]; e < cfg.succStart[b+1]; e++) {
+      int base = cfg.succ[e] * gwords;
+      for (int w = 0; w < gwords; w++)
+	for (long x = in[base+w]; x != 0; x &= x - 1)
+	  set(set, 0, slotOf[w * 64 + Long.numberOfTrailingZeros(x)]);
+    }
+  }
+
+  // Fill set with the variables live on entry to block b
+  void liveIn(int b, long[] set) {
+    liveOut(b, set);
+    for (int i = cfg.start[b+1] - 1; i >= cfg.start[b]; i--)
+      step(cfg.func.code[i], set);
+  }
+
+  // The variables live just after / before instruction i
+  long[] liveAfter(int i) {
+    int b = cfg.blockOf[i];
+    long[] set = newSet();
+    liveOut(b, set);
+    for (int j = cfg.start[b+1] - 1; j > i; j--)
+      step(cfg.func.code[j], set);
+    return set;
+  }
+
+  long[] liveBefore(int i) {
+    long[] set = liveAfter(i);
+    step(cfg.func.code[i], set);
+    return set;
+  }
+
+  // Move a full-width set from after instruction n to before it
+  void step(IR1.Inst n, long[] set) {
+    int d = var(CodeGen.dest(n));
+    if (d >= 0)
+      clear(set, d);
+    int k = uses(n);
+    for (int j = 0; j < k; j++)
+      set(set, 0, vs[j]);
+  }
+
+  //----------------------------------------------------------------------------------
+  // Operands
+  //----------
+
+  // The slot of a variable operand, or -1
+  int var(Object v) {
+    return (v instanceof IR1.Id || v instanceof IR1.Temp) ? slots.lookup(v) : -1;
+  }
+
+  // Store the slots of the variables instruction n reads in vs; return
+  // their count
+  int uses(IR1.Inst n) {
+    int k = 0;
+    if (n instanceof IR1.Binop) {
+      k = add(k, ((IR1.Binop) n).src1);
+      k = add(k, ((IR1.Binop) n).src2);
+    } else if (n instanceof IR1.Unop) {
+      k = add(k, ((IR1.Unop) n).src);
+    } else if (n instanceof IR1.Move) {
+      k = add(k, ((IR1.Move) n).src);
+    } else if (n instanceof IR1.Load) {
+      k = add(k, ((IR1.Load) n).addr.base);
+    } else if (n instanceof IR1.Store) {
+      k = add(k, ((IR1.Store) n).addr.base);
+      k = add(k, ((IR1.Store) n).src);
+    } else if (n instanceof IR1.Call) {
+      IR1.Src[] args = ((IR1.Call) n).args;
+      if (args.length > vs.length)
+	vs = new int[args.length];
+      for (IR1.Src s: args)
+	k = add(k, s);
+    } else if (n instanceof IR1.Return) {
+      k = add(k, ((IR1.Return) n).val);
+    } else if (n instanceof IR1.CJump) {
+      k = add(k, ((IR1.CJump) n).src1);
+      k = add(k, ((IR1.CJump) n).src2);
+    }
+    return k;
+  }
+
+  int add(int k, IR1.Src s) {
+    int v = var(s);
+    if (v >= 0)
+      vs[k++] = v;
+    return k;
+  }
+
+  //----------------------------------------------------------------------------------
+  // Bitsets
+  //---------
+
+  static int wordsFor(int bits) { return (bits + 63) >>> 6; }
+
+  static boolean get(long[] s, int base, int i) { return (s[base + (i >>> 6)] & (1L << i)) != 0; }
+  static void set(long[] s, int base, int i)    { s[base + (i >>> 6)] |= 1L << i; }
+  static void clear(long[] s, int i)             { s[i >>> 6] &= ~(1L << i); }
+}
@@ -0,0 +1,152 @@
+// This is supporting software for CS322 Compilers and Language Design II
+// Copyright (c) Portland State University
+//---------------------------------------------------------------------------
+// For CS322 W'16 (J. Li).
+//
+
+// Linear-scan register allocation for an IR1 function. (Poletto and
+// Sarkar's version: one interval per variable, no splitting)
+//
+// Each variable (stack slot, see CodeGen.SlotTable) gets the interval
+// from its first to its last live point in code order, from Liveness.
+// Instruction i reads its operands at point 2i+1 and writes its
+// result at 2i+2, so a variable whose last use is an instruction can
+// share a register with the one that instruction defines; params are
+// written at point 0, in the prologue.
+//
+// The intervals are visited by start point, and each takes a free
+// register:
+//
+// - RCX, RSI, RDI, R8, R9 (caller-saved), for an interval with no
+//   call in it, and which does not start in the prologue: a call
+//   clobbers these and loads its arguments into them, and params
+//   arrive in them;
+// - else RBX, R12-R15 (callee-saved), which the function then saves
+//   in its prologue and restores before each ret.
+//
+// When no register is free, whichever of the interval and the active
+// ones holding a register it could use ends last is spilled: it keeps
+// its frame slot for its whole life. RAX and RDX (division, returns)
+// and R10 and R11 (CodeGen's scratch registers) are never assigned.
+//
+import java.util.*;
+import ir.*;
+
+class RegAlloc {
+  static final X86.Reg[] calleeRegs = {X86.RBX, X86.R12, X86.R13, X86.R14, X86.R15};
+  static final X86.Reg[] callerRegs = {X86.RCX, X86.RSI, X86.RDI, X86.R8, X86.R9};
+
+  final X86.Reg[] regs;			// register by slot, null if in the frame
+  final X86.Reg[] saved;		// callee-saved registers used, in push order
+  int intervals, spilled;
+
+  RegAlloc(IR1.Func f, CodeGen.SlotTable slots) throws CodeGen.GenException {
+    IR1.Inst[] code = f.code;
+    CFG cfg = new CFG(f);
+    Liveness lv = new Liveness(cfg, slots);
+    int nv = slots.size;
+    regs = new X86.Reg[nv];
+
+    // intervals
+    int[] from = new int[nv], to = new int[nv];
+    Arrays.fill(from, Integer.MAX_VALUE);
+    Arrays.fill(to, -1);
+    for (int i = 0; i < f.params.length; i++)
+      if (slots.lookup(f.params[i]) == i)
+	extend(from, to, i, 0);
+    long[] x = new long[lv.gwords];
+    for (int b = 0; b < cfg.size; b++) {
+      if (cfg.start[b] == cfg.start[b+1])
+	continue;
+      int first = 2 * cfg.start[b] + 1, last = 2 * cfg.start[b+1];
+      for (int w = 0; w < lv.gwords; w++)
+	for (long y = lv.in[b * lv.gwords + w]; y != 0; y &= y - 1)
+	  extend(from, to, lv.slotOf[w * 64 + Long.numberOfTrailingZeros(y)], first);
+      lv.blockOut(b, x);
+      for (int w = 0; w < lv.gwords; w++)
+	for (long y = x[w]; y != 0; y &= y - 1)
+	  extend(from, to, lv.slotOf[w * 64 + Long.numberOfTrailingZeros(y)], last);
+    }
+    // calls[p]: the calls reading their arguments at or before point p
+    int[] calls = new int[2 * code.length + 2];
+    for (int i = 0; i < code.length; i++) {
+      int k = lv.uses(code[i]);
+      for (int j = 0; j < k; j++)
+	extend(from, to, lv.vs[j], 2 * i + 1);
+      int d = lv.var(CodeGen.dest(code[i]));
+      if (d >= 0)
+	extend(from, to, d, 2 * i + 2);
+      if (code[i] instanceof IR1.Call)
+	calls[2 * i + 1]++;
+    }
+    for (int p = 1; p < calls.length; p++)
+      calls[p] += calls[p-1];
+
+    // visit by start point
+    long[] order = new long[nv];
+    int n = 0;
+    for (int v = 0; v < nv; v++)
+      if (to[v] >= 0)
+	order[n++] = ((long) from[v] << 32) | v;
+    order = Arrays.copyOf(order, n);
+    Arrays.sort(order);
+    intervals = n;
+
+    // scan; pool index r < calleeRegs.length is a callee-saved register
+    X86.Reg[] pool = new X86.Reg[calleeRegs.length + callerRegs.length];
+    System.arraycopy(calleeRegs, 0, pool, 0, calleeRegs.length);
+    System.arraycopy(callerRegs, 0, pool, calleeRegs.length, callerRegs.length);
+    int[] owner = new int[pool.length];
+    Arrays.fill(owner, -1);
+    boolean[] used = new boolean[calleeRegs.length];
+    for (long o: order) {
+      int v = (int) o, start = from[v];
+      for (int r = 0; r < pool.length; r++)
+	if (owner[r] >= 0 && to[owner[r]] < start)
+	  owner[r] = -1;
+      boolean calleeOnly = start == 0 || calls[to[v]] > calls[start - 1];
+      int pick = -1;
+      if (!calleeOnly)
+	pick = free(owner, calleeRegs.length, pool.length);
+      if (pick < 0)
+	pick = free(owner, 0, calleeRegs.length);
+      if (pick < 0) {
+	// spill whichever usable interval ends last
+	int lim = calleeOnly ? calleeRegs.length : pool.length;
+	for (int r = 0; r < lim; r++)
+	  if (to[owner[r]] > to[v] && (pick < 0 || to[owner[r]] > to[owner[pick]]))
+	    pick = r;
+	spilled++;
+	if (pick < 0)
+	  continue;
+	regs[owner[pick]] = null;
+      }
+      owner[pick] = v;
+      regs[v] = pool[pick];
+      if (pick < calleeRegs.length)
+	used[pick] = true;
+    }
+
+    int k = 0;
+    for (boolean u: used)
+      if (u) k++;
+    saved = new X86.Reg[k];
+    k = 0;
+    for (int r = 0; r < used.length; r++)
+      if (used[r])
+	saved[k++] = calleeRegs[r];
+  }
+
+  static void extend(int[] from, int[] to, int v, int p) {
+    if (p < from[v]) from[v] = p;
+    if (p > to[v]) to[v] = p;
+  }
+
+  // A free register in pool[lo..hi), or -1
+  static int free(int[] owner, int lo, int hi) {
+    for (int r = lo; r < hi; r++)
+      if (owner[r] < 0)
+	return r;
+    return -1;
+  }
+}
@@ -0,0 +1,212 @@
+// This is supporting software for CS322 Compilers and Language Design II
+// Copyright (c) Portland State University
+//---------------------------------------------------------------------------
+// For CS322 W'16 (J. Li).
+//
+
+// Compile server. (Alternative to one JVM per CodeGen run)
+//
+// CodeGen -s path runs a long-lived server on a Unix-domain socket at
+// path, so the parser and code generator stay loaded and JIT-compiled
+// between compiles. Client (Client.java) is the matching command-line
+// client.
+//
+// The server compiles with its user's permissions, so only that user
+// may connect: the socket is created owner-only (rw-------) before it
+// is put at path. CodeGen -s port --tcp listens on that loopback TCP
+// port instead, which EVERY local user can connect to -- use it only
+// on a single-user machine.
+//
+// Protocol -- one request per connection:
+//
+//   request:  arg "\n" {arg "\n"} "\n"    -- CodeGen's single-file
+//                                           arguments, one per line
+//   response: ("OK" | "ERR") " " n "\n" followed by n bytes
+//
+// The OK body is the compiled output (empty if the request had -o);
+// the ERR body is the error message. Paths are taken as they are,
+// relative to the server's working directory (Client makes them
+// absolute), and files a request writes (-o, --stats=file) must be
+// under that directory. The request "stats" returns the latency report
+// instead.
+//
+// -j n limits how many requests compile at once (default: one per
+// core); more connections wait their turn. -k cachedir gives every
+// request the server's function cache, and --jfr turns on the Flight
+// Recorder events (Events.java) for all requests; it is not a
+// per-request option.
+//
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.*;
+import java.util.concurrent.*;
+
+class Server {
+  final CodeGen.Options opts;
+  final Stats stats = new Stats();
+
+  Server(CodeGen.Options opts) { this.opts = opts; }
+
+  void run() throws Exception {
+    ServerSocketChannel server = open(opts.serve, opts.tcp);
+    ExecutorService pool = Executors.newFixedThreadPool(Math.max(opts.workers, 1));
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+	System.err.print(stats.report());
+	if (!isPort(opts.serve))
+	  new File(opts.serve).delete();
+    }));
+    System.err.println("CodeGen server on " + opts.serve + " (" + opts.workers + " workers)");
+    while (true) {
+      final SocketChannel ch = server.accept();
+      final long accepted = System.nanoTime();
+      pool.execute(() -> serve(ch, accepted));
+    }
+  }
+
+  static boolean isPort(String s) {
+    return s.matches("[0-9]+");
+  }
+
+  // Bind the socket. A Unix socket is bound in a private directory
+  // next to addr, made owner-only, and then renamed to addr, so no
+  // other user can connect in between.
+  //
+  static ServerSocketChannel open(String addr, boolean tcp) throws IOException {
+    if (isPort(addr)) {
+      if (!tcp)
+	throw new IllegalArgumentException("-s " + addr + ": a TCP port is open to every local user;"
+					   + " add --tcp to allow it, or give a socket path");
+      ServerSocketChannel s = ServerSocketChannel.open();
+      s.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(addr)));
+      return s;
+    }
+    Path path = Paths.get(addr).toAbsolutePath();
+    Files.deleteIfExists(path);		// stale socket from an earlier run
+    Path dir = Files.createTempDirectory(path.getParent(), ".codegen",
+	PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+    Path tmp = dir.resolve("s");
+    try {
+      ServerSocketChannel s = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+      s.bind(UnixDomainSocketAddress.of(tmp));
+      Files.setPosixFilePermissions(tmp, PosixFilePermissions.fromString("rw-------"));
+      Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+      return s;
+    } finally {
+      Files.deleteIfExists(tmp);
+      Files.delete(dir);
+    }
+  }
+
+  // Handle one connection
+  void serve(SocketChannel ch, long accepted) {
+    long start = System.nanoTime();
+    boolean ok = false;
+    try {
+      List<String> args = readRequest(Channels.newInputStream(ch));
+      if (args.size() == 1 && args.get(0).equals("stats")) {
+	reply(ch, "OK", stats.report().getBytes(StandardCharsets.UTF_8));
+	return;
+      }
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      try {
+	compile(args, body);
+	ok = true;
+      } catch (Exception | Error e) {	// (lexical errors are TokenMgrErrors)
+	body.reset();
+	body.write(String.valueOf(e).getBytes(StandardCharsets.UTF_8));
+      }
+      reply(ch, ok ? "OK" : "ERR", body.toByteArray());
+      long end = System.nanoTime();
+      stats.add(start - accepted, end - start, ok);
+    } catch (IOException e) {
+      System.err.println("CodeGen server: " + e);
+    } finally {
+      try { ch.close(); } catch (IOException e) {}
+    }
+  }
+
+  void compile(List<String> args, ByteArrayOutputStream body) throws Exception {
+    for (String a: args)
+      if (a.equals("-d") || a.equals("-j") || a.equals("-k") || a.equals("-s") || a.equals("--tcp")
+	  || a.equals("--jfr") || a.startsWith("@"))
+	throw new IllegalArgumentException(a + " is not allowed in a server request");
+    CodeGen.Options o = CodeGen.Options.parse(args.toArray(new String[0]));
+    if (o.inputs.size() != 1)
+      throw new IllegalArgumentException("expected one input file, got " + o.inputs.size());
+    checkWritable(o.outFile);
+    checkWritable(o.statsFile);
+    o.cache = opts.cache;
+    if (o.outFile != null)
+      CodeGen.compile(o.inputs.get(0), o.outFile, o);
+    else
+      CodeGen.compile(o.inputs.get(0), Channels.newChannel(body), o);
+    CodeGen.Stats.write(o);
+  }
+
+  // A request may only write files under the server's working directory
+  static void checkWritable(File f) throws IOException {
+    if (f == null)
+      return;
+    Path cwd = new File("").getCanonicalFile().toPath();
+    if (!f.getCanonicalFile().toPath().startsWith(cwd))
+      throw new IllegalArgumentException(f + " is outside the server's directory " + cwd);
+  }
+
+  static List<String> readRequest(InputStream in) throws IOException {
+    BufferedReader r = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    List<String> args = new ArrayList<String>();
+    String line;
+    while ((line = r.readLine()) != null && line.length() > 0)
+      args.add(line);
+    return args;
+  }
+
+  static void reply(SocketChannel ch, String status, byte[] body) throws IOException {
+    byte[] head = (status + " " + body.length + "\n").getBytes(StandardCharsets.US_ASCII);
+    ByteBuffer[] bufs = { ByteBuffer.wrap(head), ByteBuffer.wrap(body) };
+    while (bufs[0].hasRemaining() || bufs[1].hasRemaining())
+      ch.write(bufs);
+  }
+
+  // Request latency: time queued (accept to start) and time serving
+  // (start to reply sent), over all requests and as percentiles of
+  // the most recent WINDOW ones
+  //
+  static class Stats {
+    static final int WINDOW = 4096;
+
+    long count, errors, totalQueued, totalServed, maxServed;
+    final long[] recent = new long[WINDOW];	// serving times, ns
+
+    synchronized void add(long queued, long served, boolean ok) {
+      recent[(int) (count % WINDOW)] = served;
+      count++;
+      if (!ok)
+	errors++;
+      totalQueued += queued;
+      totalServed += served;
+      maxServed = Math.max(maxServed, served);
+    }
+
+    synchronized String report() {
+      if (count == 0)
+	return "requests: 0\n";
+      long[] w = Arrays.copyOf(recent, (int) Math.min(count, WINDOW));
+      Arrays.sort(w);
+      return String.format("requests: %d (%d errors)\n"
+			   + "queued: mean %.3f ms\n"
+			   + "served: mean %.3f ms, p50 %.3f, p90 %.3f, p99 %.3f, max %.3f ms\n",
+			   count, errors, totalQueued / 1e6 / count, totalServed / 1e6 / count,
+			   pct(w, 50), pct(w, 90), pct(w, 99), maxServed / 1e6);
+    }
+
+    static double pct(long[] sorted, int p) {
+      return sorted[Math.min(sorted.length - 1, sorted.length * p / 100)] / 1e6;
+    }
+  }
+}
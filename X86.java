@@ -8,6 +8,8 @@
 // (Based on Andrew Tolmach's earlier version.)
 //
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
 import java.util.*;
 
 class X86 {
@@ -15,13 +17,25 @@ class X86 {
   // Register Names
   //------------------------------------------------------------------------
 
+  // Canonical registers, indexed by size, then number. Every Reg
+  // comes from this table (see reg()), so registers can be compared
+  // with == and are never allocated while emitting code.
+  private static final Reg[][] regs = new Reg[3][16];
+  static {
+    for (Size s: Size.values())
+      for (int r = 0; r < 16; r++)
+	regs[s.ordinal()][r] = new Reg(r, s);
+  }
+
+  static Reg reg(int r, Size s) { return regs[s.ordinal()][r]; }
+
   // Nnemonic definitions for the registers
   static final Reg
-    EAX = new Reg(0, Size.L), EDX = new Reg(3, Size.L),	
-    RAX = new Reg(0), RBX = new Reg(1), RCX = new Reg(2), RDX = new Reg(3),  
-    RSI = new Reg(4), RDI = new Reg(5), RBP = new Reg(6), RSP = new Reg(7),  
-    R8  = new Reg(8), R9  = new Reg(9), R10 = new Reg(10),R11 = new Reg(11),
-    R12 = new Reg(12),R13 = new Reg(13),R14 = new Reg(14),R15 = new Reg(15);
+    EAX = reg(0, Size.L), EDX = reg(3, Size.L),	
+    RAX = reg(0, Size.Q), RBX = reg(1, Size.Q), RCX = reg(2, Size.Q), RDX = reg(3, Size.Q),  
+    RSI = reg(4, Size.Q), RDI = reg(5, Size.Q), RBP = reg(6, Size.Q), RSP = reg(7, Size.Q),  
+    R8  = reg(8, Size.Q), R9  = reg(9, Size.Q), R10 = reg(10, Size.Q),R11 = reg(11, Size.Q),
+    R12 = reg(12, Size.Q),R13 = reg(13, Size.Q),R14 = reg(14, Size.Q),R15 = reg(15, Size.Q);
 
   // Indices of standard argument registers
   static Reg[] allRegs = {RAX, RBX, RCX, RDX, RSI, RDI, RBP, RSP,
@@ -55,7 +69,10 @@ class X86 {
   // Operands
   //------------------------------------------------------------------------
  
-  static abstract class Operand {}
+  static abstract class Operand {
+    // Write the operand's assembly form without building a String
+    abstract void print(Emitter e) throws IOException;
+  }
 
   // Computed memory address
   //
@@ -76,26 +93,43 @@ class X86 {
 	(index != null ? ("," + index + 
 	  (scale != 1 ? ("," + scale) : "")) : "") + ")";
     }
+    void print(Emitter e) throws IOException {
+      if (offset != 0)
+	e.putInt(offset);
+      e.put('('); e.put(base.name());
+      if (index != null) {
+	e.put(','); e.put(index.name());
+	if (scale != 1) { e.put(','); e.putInt(scale); }
+      }
+      e.put(')');
+    }
     public boolean equals(Object obj) {
       return obj instanceof Mem && 
 	base == ((Mem) obj).base && index == ((Mem) obj).index && 
 	offset == ((Mem) obj).offset && scale == ((Mem) obj).scale;
     }
+    public int hashCode() {
+      return Objects.hash(base, index, offset, scale);
+    }
   }
 
   // Register
   //
   static class Reg extends Operand {
-    int r; 
-    Size s; 
+    final int r; 
+    final Size s; 
 
-    Reg(int r) { this.r=r; this.s=Size.Q; }
-    Reg(int r, Size s) { this.r=r; this.s=s; }
-    public String toString() { return regName[s.ordinal()][r]; }
+    private Reg(int r, Size s) { this.r=r; this.s=s; }
+    String name() { return regName[s.ordinal()][r]; }
+    public String toString() { return name(); }
+    void print(Emitter e) throws IOException { e.put(name()); }
 
     public boolean equals(Object obj) {
       return obj instanceof Reg && r == ((Reg) obj).r && s == ((Reg) obj).s;  
     }
+    public int hashCode() {
+      return s.ordinal() * 16 + r;
+    }
   }
 
   // 32-bit integer immediate
@@ -105,10 +139,14 @@ class X86 {
 
     Imm(int i) { this.i=i; }
     public String toString() { return "$" + i; }
+    void print(Emitter e) throws IOException { e.put('$'); e.putInt(i); }
 
     public boolean equals(Object obj) {
       return obj instanceof Imm && i == ((Imm) obj).i;
     }
+    public int hashCode() {
+      return i;
+    }
   }
 
   // Named global address (PIC)
@@ -118,6 +156,7 @@ class X86 {
   
     AddrName(String s) { this.s=s; }
     public String toString() { return s + "(%rip)"; }
+    void print(Emitter e) throws IOException { e.put(s); e.put("(%rip)"); }
 
     public boolean equals(Object obj) {
       return obj instanceof AddrName && s == ((AddrName) obj).s;
@@ -131,6 +170,7 @@ class X86 {
 
     Label(String s) { this.s=s; }
     public String toString() { return s; }
+    void print(Emitter e) throws IOException { e.put(s); }
 
     public boolean equals(Object obj) {
       return obj instanceof Label && s == ((Label) obj).s;
@@ -140,39 +180,248 @@ class X86 {
   // Code-Emitting Routines
   //------------------------------------------------------------------------
 
-  static int instCnt = 0;
+  // Each compilation owns its emitter, so separate programs (or
+  // functions) can be emitted on separate threads.
+  //
+  // Code is encoded (as ASCII) into one reusable buffer and written to
+  // the sink channel when the buffer fills or on flush(), which the
+  // code generator calls once per function.
+  //
+  // Operands are written straight into the buffer (Operand.print), and
+  // the emitRM/emitMR/emitIR/... forms take the parts of an operand
+  // (base register, offset, immediate value, label name) as plain
+  // arguments, so emitting an instruction allocates nothing.
+  //
+  static class Emitter implements Appendable {
+    static final int BUFSIZE = 1 << 16;
 
-  static void emit(String s) {
-    System.out.println(s);
-  }
+    final WritableByteChannel sink;
+    final ByteBuffer buf;
+    final ByteArrayOutputStream mem;	// backing store of an in-memory sink
+    int instCnt = 0;
+    int frameLoads = 0, frameStores = 0;	// memory operands based on %rsp
+    long flushed = 0;			// bytes written to the sink
 
-  static void emit0(String op) {
-    System.out.print("\t" + op + "\n");
-    instCnt++;
-  }
+    Emitter(WritableByteChannel sink) { this(sink, BUFSIZE); }
+    Emitter(WritableByteChannel sink, int size) { 
+      this.sink=sink; this.buf=ByteBuffer.allocate(size); this.mem=null;
+    }
+    Emitter(ByteArrayOutputStream mem, int size) {
+      this.sink=Channels.newChannel(mem); this.buf=ByteBuffer.allocate(size); this.mem=mem;
+    }
 
-  static void emit1(String op, Operand rand1) {
-    System.out.print("\t" + op + " " + rand1 + "\n");
-    instCnt++;
-  }
+    // Common sinks
+    static Emitter toStdout() {
+      return new Emitter(Channels.newChannel(new FileOutputStream(FileDescriptor.out)));
+    }
+    static Emitter toFile(File f) throws IOException {
+      return new Emitter(new FileOutputStream(f).getChannel());
+    }
+    static Emitter toMemory() {
+      return new Emitter(new ByteArrayOutputStream(), 4096);
+    }
 
-  static void emit2(String op, Operand rand1, Operand rand2) {
-    System.out.print("\t" + op + " " + rand1 + "," + rand2 + "\n");
-    instCnt++;
-  }
+    // An in-memory emitter of the same kind, for code to be append()ed
+    // back later
+    Emitter fork() {
+      return toMemory();
+    }
 
-  static void emitLabel(Label lab) {
-    System.out.print(lab + ":\n");
-  }
+    void put(char c) throws IOException {
+      if (!buf.hasRemaining())
+	flush();
+      buf.put((byte) c);
+    }
+
+    void put(String s) throws IOException {
+      int n = s.length();
+      for (int i = 0; i < n; i++) {
+	if (!buf.hasRemaining())
+	  flush();
+	buf.put((byte) s.charAt(i));
+      }
+    }
+
+    // Raw (already formatted) assembly text
+    void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+	if (!buf.hasRemaining())
+	  flush();
+	int n = Math.min(len, buf.remaining());
+	buf.put(b, off, n);
+	off += n;
+	len -= n;
+      }
+    }
+
+    // Decimal digits of an int
+    void putInt(int v) throws IOException {
+      if (v == Integer.MIN_VALUE) {
+	put(Integer.toString(v));
+	return;
+      }
+      if (v < 0) {
+	put('-');
+	v = -v;
+      }
+      int d = 1;
+      while (d <= v / 10)
+	d *= 10;
+      for (; d > 0; d /= 10)
+	put((char) ('0' + (v / d) % 10));
+    }
 
-  static void emitString(String s) {
-    System.out.print("\t.asciz \"" + s + "\"\n");
+    // offset(base), with the offset left out when 0
+    void putMem(Reg base, int offset) throws IOException {
+      if (offset != 0)
+	putInt(offset);
+      put('('); put(base.name()); put(')');
+    }
+
+    public Emitter append(char c) throws IOException {
+      put(c);
+      return this;
+    }
+
+    public Emitter append(CharSequence s) throws IOException {
+      return append(s, 0, s.length());
+    }
+
+    public Emitter append(CharSequence s, int start, int end) throws IOException {
+      for (int i = start; i < end; i++)
+	put(s.charAt(i));
+      return this;
+    }
+
+    void emit(String s) throws IOException {
+      put(s); put('\n');
+    }
+
+    void emit0(String op) throws IOException {
+      put('\t'); put(op); put('\n');
+      instCnt++;
+    }
+
+    void emit1(String op, Operand rand1) throws IOException {
+      put('\t'); put(op); put(' '); rand1.print(this); put('\n');
+      instCnt++;
+    }
+
+    void emit2(String op, Operand rand1, Operand rand2) throws IOException {
+      put('\t'); put(op); put(' '); rand1.print(this); 
+      put(','); rand2.print(this); put('\n');
+      instCnt++;
+    }
+
+    // op reg,offset(base)
+    void emitRM(String op, Reg r, Reg base, int offset) throws IOException {
+      put('\t'); put(op); put(' '); put(r.name()); 
+      put(','); putMem(base, offset); put('\n');
+      instCnt++;
+      if (base == RSP) frameStores++;
+    }
+
+    // op offset(base),reg
+    void emitMR(String op, Reg base, int offset, Reg r) throws IOException {
+      put('\t'); put(op); put(' '); putMem(base, offset); 
+      put(','); put(r.name()); put('\n');
+      instCnt++;
+      if (base == RSP) frameLoads++;
+    }
+
+    // op $imm,reg
+    void emitIR(String op, int imm, Reg r) throws IOException {
+      put('\t'); put(op); put(" $"); putInt(imm); 
+      put(','); put(r.name()); put('\n');
+      instCnt++;
+    }
+
+    // op <prefix><num>(%rip),reg
+    void emitAddrName(String op, String prefix, int num, Reg r) throws IOException {
+      put('\t'); put(op); put(' '); put(prefix); putInt(num); 
+      put("(%rip),"); put(r.name()); put('\n');
+      instCnt++;
+    }
+
+    // op <fn>_<lab>  (jumps to a function-local label), or
+    // op <fn>        (calls, when lab is null)
+    void emitJump(String op, String fn, String lab) throws IOException {
+      put('\t'); put(op); put(' '); put(fn);
+      if (lab != null) { put('_'); put(lab); }
+      put('\n');
+      instCnt++;
+    }
+
+    void emitLabel(Label lab) throws IOException {
+      put(lab.s); put(':'); put('\n');
+    }
+
+    // <fn>_<lab>:
+    void emitLabel(String fn, String lab) throws IOException {
+      put(fn); put('_'); put(lab); put(':'); put('\n');
+    }
+
+    void emitString(String s) throws IOException {
+      put("\t.asciz \""); put(s); put('"'); put('\n');
+    }
+
+    // A labeled string literal
+    void emitStringLit(Label lab, String s) throws IOException {
+      emitLabel(lab);
+      emitString(s);
+    }
+
+    void emitComment(String s) throws IOException {
+      put("\t\t\t  # "); put(s);
+    }
+
+    void emitComment(ir.IR1.Printable p) throws IOException {
+      put("\t\t\t  # "); p.print(this);
+    }
+
+    // Append the code held by an in-memory emitter
+    void append(Emitter e) throws IOException {
+      e.flush();
+      flush();
+      ByteBuffer code = ByteBuffer.wrap(e.mem.toByteArray());
+      flushed += code.remaining();
+      while (code.hasRemaining())
+	sink.write(code);
+      instCnt += e.instCnt;
+      frameLoads += e.frameLoads;
+      frameStores += e.frameStores;
+    }
+
+    void flush() throws IOException {
+      Events.Flush ev = Events.enabled ? new Events.Flush() : null;
+      if (ev != null) ev.begin();
+      buf.flip();
+      int n = buf.remaining();
+      flushed += n;
+      while (buf.hasRemaining())
+	sink.write(buf);
+      buf.clear();
+      if (ev != null && ev.shouldCommit()) {
+	ev.bytes = n;
+	ev.commit();
+      }
+    }
+
+    // Bytes emitted so far
+    long bytes() {
+      return flushed + buf.position();
+    }
+
+    // Complete the output once the whole program has been emitted
+    void finish() throws IOException {
+      flush();
+    }
   }
-    
+
   // Adjust size of register operand
   //
   static Reg resize_reg(Size size, Reg r) {
-    return new Reg(r.r, size);
+    return reg(r.r, size);
   }
 
 }
@@ -0,0 +1,54 @@
+// This is supporting software for CS322 Compilers and Language Design II
+// Copyright (c) Portland State University
+//---------------------------------------------------------------------------
+// For CS322 W'16 (J. Li).
+//
+
+// The benchmarks' view of CodeGen and X86 (see bench/Compiler.java).
+//
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import ir.IR1;
+
+public class BenchCompiler implements bench.Compiler {
+
+  // Discards everything, counting the bytes
+  static class NullSink implements WritableByteChannel {
+    long bytes;
+
+    public int write(ByteBuffer b) {
+      int n = b.remaining();
+      b.position(b.limit());
+      bytes += n;
+      return n;
+    }
+    public boolean isOpen() { return true; }
+    public void close() {}
+  }
+
+  final NullSink sink = new NullSink();
+  final CodeGen.Options opts = new CodeGen.Options();
+  final X86.Emitter out = new X86.Emitter(sink);
+  final CodeGen.Context prog = new CodeGen.Context(out, opts);
+  final X86.Reg r10d = X86.reg(10, X86.Size.L);
+
+  public void gen(IR1.Func f) throws Exception {
+    CodeGen.gen(f, new CodeGen.FuncContext(prog, out));
+  }
+
+  public long emit(int n) throws Exception {
+    long start = sink.bytes;
+    for (int i = 0; i < n; i += 4) {
+      out.emitMR("movslq", X86.RSP, (i & 63) * 4, X86.R10);
+      out.emitIR("addq", i, X86.R10);
+      out.emit2("imulq", X86.R11, X86.R10);
+      out.emitRM("movl", r10d, X86.RSP, (i & 31) * 4);
+    }
+    out.flush();
+    return sink.bytes - start;
+  }
+
+  public void compile(String path) throws Exception {
+    CodeGen.compile(path, sink, opts);
+  }
+}
@@ -0,0 +1,40 @@
+// This is supporting software for CS322 Compilers and Language Design II
+// Copyright (c) Portland State University
+//---------------------------------------------------------------------------
+// For CS322 W'16 (J. Li).
+//
+
+package bench;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import ir.IR1;
+import ir.IR1Parser;
+
+// CodeGen.gen(IR1.Func) on one parsed function, output discarded
+//
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodeGenBench {
+
+  @State(Scope.Thread)
+  public static class Parsed {
+    Compiler compiler;
+    IR1.Func func;
+
+    @Setup
+    public void setup(Shape s) throws Exception {
+      compiler = Compiler.load();
+      func = new IR1Parser(new StringReader(s.text)).Program().funcs[0];
+    }
+  }
+
+  @Benchmark
+  public void genFunc(Parsed p) throws Exception {
+    p.compiler.gen(p.func);
+  }
+}
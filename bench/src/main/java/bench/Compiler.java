@@ -0,0 +1,33 @@
+// This is supporting software for CS322 Compilers and Language Design II
+// Copyright (c) Portland State University
+//---------------------------------------------------------------------------
+// For CS322 W'16 (J. Li).
+//
+
+package bench;
+
+import ir.IR1;
+
+// The parts of the compiler the benchmarks drive.
+//
+// CodeGen and X86 live in the unnamed package, which code in a named
+// package (as JMH requires benchmarks to be) cannot refer to. So they
+// are reached through this interface, implemented by BenchCompiler in
+// the unnamed package. All output goes to a sink that discards it.
+//
+public interface Compiler {
+
+  // Generate code for one function
+  void gen(IR1.Func f) throws Exception;
+
+  // Emit n instructions of a fixed mix of forms; returns the number of
+  // bytes encoded
+  long emit(int n) throws Exception;
+
+  // Parse a file and generate its assembly
+  void compile(String path) throws Exception;
+
+  static Compiler load() throws Exception {
+    return (Compiler) Class.forName("BenchCompiler").getDeclaredConstructor().newInstance();
+  }
+}
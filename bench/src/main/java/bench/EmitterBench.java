@@ -0,0 +1,36 @@
+// This is supporting software for CS322 Compilers and Language Design II
+// Copyright (c) Portland State University
+//---------------------------------------------------------------------------
+// For CS322 W'16 (J. Li).
+//
+
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// X86.Emitter throughput, in instructions per microsecond, over a mix
+// of register, memory and immediate forms (see BenchCompiler.emit)
+//
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EmitterBench {
+  static final int N = 1024;
+
+  Compiler compiler;
+
+  @Setup
+  public void setup() throws Exception {
+    compiler = Compiler.load();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(N)
+  public long emit() throws Exception {
+    return compiler.emit(N);
+  }
+}
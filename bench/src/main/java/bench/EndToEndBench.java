@@ -0,0 +1,46 @@
+// This is supporting software for CS322 Compilers and Language Design II
+// Copyright (c) Portland State University
+//---------------------------------------------------------------------------
+// For CS322 W'16 (J. Li).
+//
+
+package bench;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// End to end: read an IR1 file, parse it, and generate its assembly
+// (output discarded)
+//
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EndToEndBench {
+
+  @State(Scope.Thread)
+  public static class Input {
+    Compiler compiler;
+    Path file;
+
+    @Setup
+    public void setup(Shape s) throws Exception {
+      compiler = Compiler.load();
+      file = Files.createTempFile("bench", ".ir");
+      Files.write(file, s.text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+      Files.delete(file);
+    }
+  }
+
+  @Benchmark
+  public void fileToAsm(Input in) throws Exception {
+    in.compiler.compile(in.file.toString());
+  }
+}
@@ -0,0 +1,28 @@
+// This is supporting software for CS322 Compilers and Language Design II
+// Copyright (c) Portland State University
+//---------------------------------------------------------------------------
+// For CS322 W'16 (J. Li).
+//
+
+package bench;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import ir.IR1;
+import ir.IR1Parser;
+
+// IR1Parser.Program() on a whole program held in memory
+//
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBench {
+
+  @Benchmark
+  public IR1.Program program(Shape s) throws Exception {
+    return new IR1Parser(new StringReader(s.text)).Program();
+  }
+}
@@ -0,0 +1,31 @@
+// This is supporting software for CS322 Compilers and Language Design II
+// Copyright (c) Portland State University
+//---------------------------------------------------------------------------
+// For CS322 W'16 (J. Li).
+//
+
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+// Program shape shared by the benchmarks: funcs functions of funcSize
+// instructions each, over temps distinct temps (see Workload)
+//
+@State(Scope.Benchmark)
+public class Shape {
+  @Param({"10"})
+  public int funcs;
+
+  @Param({"16", "1024"})
+  public int funcSize;
+
+  @Param({"8", "256"})
+  public int temps;
+
+  String text;
+
+  @Setup
+  public void setup() {
+    text = Workload.program(funcs, funcSize, temps);
+  }
+}
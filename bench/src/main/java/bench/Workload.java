@@ -0,0 +1,51 @@
+// This is supporting software for CS322 Compilers and Language Design II
+// Copyright (c) Portland State University
+//---------------------------------------------------------------------------
+// For CS322 W'16 (J. Li).
+//
+
+package bench;
+
+import java.util.Random;
+
+// Synthetic IR1 programs of a given shape, for the benchmarks
+//
+// Each function is mostly arithmetic over its temps, with a call to
+// _printInt every 16 instructions and a forward branch every 32.
+// Every temp is defined before it is used. Fixed seed, so the same
+// shape always gives the same text.
+//
+class Workload {
+
+  static String program(int funcs, int funcSize, int temps) {
+    Random r = new Random(322);
+    StringBuilder sb = new StringBuilder();
+    for (int f = 0; f < funcs; f++) {
+      sb.append("_f").append(f).append(" (a, b)\n(x)\n{\n");
+      sb.append(" x = a\n");
+      int defs = 0;			// temps defined so far
+      int label = 0;
+      boolean pending = false;		// a goto awaits its label
+      for (int i = 0; i < funcSize; i++) {
+	String src1 = (defs == 0) ? "a" : "t" + ((defs - 1) % temps);
+	String src2 = (defs == 0) ? "b" : "t" + r.nextInt(Math.min(defs, temps));
+	if (i % 32 == 31) {
+	  sb.append(" if ").append(src1).append(" < 100 goto L").append(label).append('\n');
+	  pending = true;
+	} else if (pending && i % 32 == 7) {
+	  sb.append("L").append(label++).append(":\n");
+	  pending = false;
+	} else if (i % 16 == 15) {
+	  sb.append(" call _printInt(").append(src1).append(")\n");
+	} else {
+	  sb.append(" t").append(defs++ % temps).append(" = ").append(src1)
+	    .append(' ').append("+-*".charAt(r.nextInt(3))).append(' ').append(src2).append('\n');
+	}
+      }
+      if (pending)
+	sb.append("L").append(label).append(":\n");
+      sb.append(" return x\n}\n\n");
+    }
+    return sb.toString();
+  }
+}
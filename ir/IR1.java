@@ -15,38 +15,64 @@ public class IR1 {
   public static final BoolLit TRUE = new BoolLit(true);
   public static final BoolLit FALSE = new BoolLit(false);
 
-  public static boolean indexed = false;
-  public static int linenum = 0;
-  static String line(boolean count, String s) {
-    String idx = (indexed && count) ? (linenum++) + ". " 
-                   + (linenum<11 ? " " : "") : "";
-    return idx + s;
+  // Printing
+  //
+  // Every node prints itself straight to an Appendable (a Writer, a
+  // StringBuilder, ...) with print(); toString() is print() into a
+  // StringBuilder. Dumping a program is then linear in its size,
+  // instead of re-copying the text built so far for each instruction.
+  //
+  // In indexed output each instruction line is prefixed with its
+  // position in the function's code array ("0.  ", ..., "10. ", ...).
+  //
+  public interface Printable {
+    void print(Appendable out) throws IOException;
+  }
+
+  static String show(Printable p) {
+    StringBuilder sb = new StringBuilder();
+    try {
+      p.print(sb);
+    } catch (IOException e) {	// not thrown by StringBuilder
+      throw new UncheckedIOException(e);
+    }
+    return sb.toString();
+  }
+
+  static void index(Appendable out, int n) throws IOException {
+    out.append(Integer.toString(n)).append(n<10 ? ".  " : ". ");
   }
 
   // Program -> {Func}
   //
-  public static class Program {
+  public static class Program implements Printable {
     public final Func[] funcs;
 
     public Program(Func[] f) { funcs=f; }
     public Program(List<Func> fl) { 
       this(fl.toArray(new Func[0])); 
     }
+    public void print(Appendable out) throws IOException {
+      print(out, false);
+    }
+    public void print(Appendable out, boolean indexed) throws IOException {
+      out.append("# IR1 Program\n");
+      for (Func f: funcs) {
+	out.append("\n");
+	f.print(out, indexed);
+      }
+    }
     public String toIndexedString() { 
-      indexed = true;
-      return toString();
+      return show(out -> print(out, true));
     }
     public String toString() { 
-      String str = "# IR1 Program\n";
-      for (Func f: funcs)
-	str += "\n" + f;
-      return str;
+      return show(this);
     }
   }
 
   // Func -> <Global> VarList [VarList] {Inst}
   //
-  public static class Func {
+  public static class Func implements Printable {
     public final Global gname;
     public final Id[] params;
     public final Id[] locals;
@@ -58,13 +84,30 @@ public class IR1 {
     public Func(Global n, List<Id> pl, List<Id> ll, List<Inst> cl) {
       this(n, pl.toArray(new Id[0]), ll.toArray(new Id[0]), cl.toArray(new Inst[0])); 
     }
+    public void print(Appendable out) throws IOException {
+      print(out, false);
+    }
+    public void print(Appendable out, boolean indexed) throws IOException {
+      out.append(gname.s).append(" ");
+      printVars(out, params);
+      out.append("\n");
+      if (locals.length > 0) {
+	printVars(out, locals);
+	out.append("\n");
+      }
+      out.append("{\n");
+      for (int i=0; i<code.length; i++) {
+	if (indexed)
+	  index(out, i);
+	code[i].print(out);
+      }
+      out.append("}\n");
+    }
+    public String toIndexedString() { 
+      return show(out -> print(out, true));
+    }
     public String toString() { 
-      String header = gname + " " + IdArrayToString(params) + "\n" +
-	              (locals.length==0? "" : IdArrayToString(locals) + "\n");
-      String body = "";
-      for (Inst s: code)
-	body += s.toString();
-      return header + "{\n" + body + "}\n";
+      return show(this);
     }
     public String header() { 
       return gname + " " + IdArrayToString(params) + " " +
@@ -75,18 +118,26 @@ public class IR1 {
   // VarList -> "(" [Id {"," Id}] ")"
   //
   static String IdArrayToString(Id[] vars) {
-    String s = "(";
-    if (vars.length > 0) {
-      s += vars[0];
-      for (int i=1; i<vars.length; i++)
-	s += ", " + vars[i];
+    return show(out -> printVars(out, vars));
+  }
+
+  static void printVars(Appendable out, Object[] vars) throws IOException {
+    out.append("(");
+    for (int i=0; i<vars.length; i++) {
+      if (i > 0)
+	out.append(", ");
+      out.append(vars[i].toString());
     }
-    return s + ")";
+    out.append(")");
   }
 
   // Instructions
 
-  public static abstract class Inst {}
+  public static abstract class Inst implements Printable {
+    public String toString() { 
+      return show(this);
+    }
+  }
 
   // Inst -> Dest "=" Src BOP Src
   //
@@ -98,8 +149,10 @@ public class IR1 {
     public Binop(BOP o, Dest d, Src s1, Src s2) { 
       op=o; dst=d; src1=s1; src2=s2; 
     }
-    public String toString() { 
-      return " " + dst + " = " + src1 + " " + op + " " + src2 + "\n";
+    public void print(Appendable out) throws IOException {
+      out.append(" ").append(dst.toString()).append(" = ")
+	.append(src1.toString()).append(" ").append(op.toString())
+	.append(" ").append(src2.toString()).append("\n");
     }
   }
 
@@ -111,8 +164,9 @@ public class IR1 {
     public final Src src;
 
     public Unop(UOP o, Dest d, Src s) { op=o; dst=d; src=s; }
-    public String toString() { 
-      return " " + dst + " = " + op + src + "\n";
+    public void print(Appendable out) throws IOException {
+      out.append(" ").append(dst.toString()).append(" = ")
+	.append(op.toString()).append(src.toString()).append("\n");
     }
   }
 
@@ -123,8 +177,9 @@ public class IR1 {
     public final Src src;
 
     public Move(Dest d, Src s) { dst=d; src=s; }
-    public String toString() { 
-      return " " + dst + " = " + src + "\n"; 
+    public void print(Appendable out) throws IOException {
+      out.append(" ").append(dst.toString()).append(" = ")
+	.append(src.toString()).append("\n");
     }
   }
 
@@ -135,8 +190,10 @@ public class IR1 {
     public final Addr addr;
 
     public Load(Dest d, Addr a) { dst=d; addr=a; }
-    public String toString() { 
-      return " " + dst + " = " + addr + "\n"; 
+    public void print(Appendable out) throws IOException {
+      out.append(" ").append(dst.toString()).append(" = ");
+      addr.print(out);
+      out.append("\n");
     }
   }
     
@@ -147,8 +204,10 @@ public class IR1 {
     public final Src src;
 
     public Store(Addr a, Src s) { addr=a; src=s; }
-    public String toString() { 
-      return " " + addr + " = " + src + "\n"; 
+    public void print(Appendable out) throws IOException {
+      out.append(" ");
+      addr.print(out);
+      out.append(" = ").append(src.toString()).append("\n");
     }
   }
 
@@ -168,16 +227,13 @@ public class IR1 {
     public Call(Global n, List<Src> al) { 
       this(n, al.toArray(new Src[0]), null);
     }
-    public String toString() { 
-      String arglist = "(";
-      if (args.length > 0) {
-	arglist += args[0];
-	for (int i=1; i<args.length; i++)
-	  arglist += ", " + args[i];
-      }
-      arglist +=  ")";
-      String retstr = (rdst==null) ? " " : " " + rdst + " = ";
-      return retstr +  "call " + gname + arglist + "\n";
+    public void print(Appendable out) throws IOException {
+      out.append(" ");
+      if (rdst != null)
+	out.append(rdst.toString()).append(" = ");
+      out.append("call ").append(gname.s);
+      printVars(out, args);
+      out.append("\n");
     }
   }
 
@@ -188,8 +244,11 @@ public class IR1 {
 
     public Return() { val=null; }
     public Return(Src s) { val=s; }
-    public String toString() { 
-      return " return " + (val==null ? "" : val) + "\n"; 
+    public void print(Appendable out) throws IOException {
+      out.append(" return ");
+      if (val != null)
+	out.append(val.toString());
+      out.append("\n");
     }
   }
 
@@ -203,9 +262,10 @@ public class IR1 {
     public CJump(ROP o, Src s1, Src s2, Label l) { 
       op=o; src1=s1; src2=s2; lab=l; 
     }
-    public String toString() { 
-      return " if " + src1 + " " + op + " " + src2 + 
-	" goto " + lab + "\n";
+    public void print(Appendable out) throws IOException {
+      out.append(" if ").append(src1.toString()).append(" ")
+	.append(op.toString()).append(" ").append(src2.toString())
+	.append(" goto ").append(lab.name).append("\n");
     }
   }
 
@@ -215,8 +275,8 @@ public class IR1 {
     public final Label lab;
 
     public Jump(Label l) { lab=l; }
-    public String toString() { 
-      return " goto " + lab + "\n"; 
+    public void print(Appendable out) throws IOException {
+      out.append(" goto ").append(lab.name).append("\n");
     }
   }
 
@@ -227,8 +287,8 @@ public class IR1 {
 
     public LabelDec(Label l) { lab=l; }
 
-    public String toString() { 
-      return lab + ":\n"; 
+    public void print(Appendable out) throws IOException {
+      out.append(lab.name).append(":\n");
     }
   }
 
@@ -246,14 +306,19 @@ public class IR1 {
 
   // Addr -> [<IntLit>] "[" Src "]"
   //
-  public static class Addr {
+  public static class Addr implements Printable {
     public final Src base;  
     public final int offset;
 
     public Addr(Src b) { base=b; offset=0; }
     public Addr(Src b, int o) { base=b; offset=o; }
+    public void print(Appendable out) throws IOException {
+      if (offset != 0)
+	out.append(Integer.toString(offset));
+      out.append("[").append(base.toString()).append("]");
+    }
     public String toString() {
-      return "" + ((offset == 0) ? "" : offset) + "[" + base + "]";
+      return show(this);
     }
   }
 
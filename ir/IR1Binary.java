@@ -0,0 +1,426 @@
+// This is supporting software for CS321/CS322 Compilers and Language Design.
+// Copyright (c) Portland State University
+//---------------------------------------------------------------------------
+// For CS322 W'16 (J. Li).
+//
+
+// Binary form of IR1 programs. (Alternative to .ir text)
+//
+// Layout (all integers are unsigned LEB128 varints unless noted):
+//
+//   "IR1B" version
+//   nstrings {length utf8-bytes}          -- string table
+//   nfuncs {u32 offset}                   -- start of each function,
+//                                            fixed-width, from file start
+//   {Func}
+//
+//   Func -> gname nparams {param} nlocals {local} ninsts {Inst}
+//   Inst -> opcode operands...            -- see write(Inst) below
+//   Src  -> (value << 3) | tag            -- tag: Id, Temp, IntLit,
+//                                            BoolLit, StrLit
+//
+// Ids, Globals, Labels and StrLits are string-table indices; IntLits
+// and Addr offsets are zigzag-encoded. Each function can be located
+// (and decoded) on its own through the offset table.
+//
+// Usage:
+//   IR1Binary.write(program, outputStream)
+//   IR1.Program p = IR1Binary.read(file)    -- see also isBinary(file)
+//
+package ir;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class IR1Binary {
+  static final byte[] MAGIC = {'I', 'R', '1', 'B'};
+  static final int VERSION = 1;
+
+  // Opcodes
+  static final int BINOP=0, UNOP=1, MOVE=2, LOAD=3, STORE=4, CALL=5,
+    RETURN=6, CJUMP=7, JUMP=8, LABELDEC=9;
+
+  // Operand tags
+  static final int ID=0, TEMP=1, INTLIT=2, BOOLLIT=3, STRLIT=4;
+
+  static final IR1.AOP[] aops = IR1.AOP.values();
+  static final IR1.ROP[] rops = IR1.ROP.values();
+  static final IR1.UOP[] uops = IR1.UOP.values();
+
+  // Does the file start with the binary format's magic number?
+  public static boolean isBinary(String file) throws IOException {
+    InputStream in = new FileInputStream(file);
+    try {
+      for (byte m: MAGIC)
+	if (in.read() != m)
+	  return false;
+      return true;
+    } finally {
+      in.close();
+    }
+  }
+
+  // Writer
+  //----------------------------------------------------------------------
+
+  // Varint output into a growable byte array
+  //
+  static class Out extends ByteArrayOutputStream {
+    void varint(long v) {
+      while ((v & ~0x7fL) != 0) {
+	write((int) ((v & 0x7f) | 0x80));
+	v >>>= 7;
+      }
+      write((int) v);
+    }
+    void zigzag(int v) {
+      varint(((long) (v << 1) ^ (v >> 31)) & 0xffffffffL);
+    }
+    void u32(int v) {
+      for (int i = 0; i < 4; i++)
+	write(v >> (8 * i));
+    }
+  }
+
+  public static void write(IR1.Program p, OutputStream os) throws IOException {
+    Map<String,Integer> strings = new LinkedHashMap<String,Integer>();
+    Out[] funcs = new Out[p.funcs.length];
+    for (int i = 0; i < funcs.length; i++) {
+      funcs[i] = new Out();
+      write(p.funcs[i], funcs[i], strings);
+    }
+
+    Out head = new Out();
+    head.write(MAGIC);
+    head.varint(VERSION);
+    head.varint(strings.size());
+    for (String s: strings.keySet()) {
+      byte[] b = s.getBytes(StandardCharsets.UTF_8);
+      head.varint(b.length);
+      head.write(b);
+    }
+    head.varint(funcs.length);
+    int offset = head.size() + 4 * funcs.length;
+    for (Out f: funcs) {
+      head.u32(offset);
+      offset += f.size();
+    }
+    head.writeTo(os);
+    for (Out f: funcs)
+      f.writeTo(os);
+  }
+
+  static void write(IR1.Func f, Out o, Map<String,Integer> strings) {
+    o.varint(str(f.gname.s, strings));
+    o.varint(f.params.length);
+    for (IR1.Id id: f.params)
+      o.varint(str(id.s, strings));
+    o.varint(f.locals.length);
+    for (IR1.Id id: f.locals)
+      o.varint(str(id.s, strings));
+    o.varint(f.code.length);
+    for (IR1.Inst i: f.code)
+      write(i, o, strings);
+  }
+
+  static void write(IR1.Inst n, Out o, Map<String,Integer> strings) {
+    if (n instanceof IR1.Binop) {
+      IR1.Binop i = (IR1.Binop) n;
+      o.varint(BINOP);
+      o.varint(i.op instanceof IR1.AOP ? ((IR1.AOP) i.op).ordinal()
+	       : aops.length + ((IR1.ROP) i.op).ordinal());
+      src(i.dst, o, strings);
+      src(i.src1, o, strings);
+      src(i.src2, o, strings);
+    } else if (n instanceof IR1.Unop) {
+      IR1.Unop i = (IR1.Unop) n;
+      o.varint(UNOP);
+      o.varint(i.op.ordinal());
+      src(i.dst, o, strings);
+      src(i.src, o, strings);
+    } else if (n instanceof IR1.Move) {
+      IR1.Move i = (IR1.Move) n;
+      o.varint(MOVE);
+      src(i.dst, o, strings);
+      src(i.src, o, strings);
+    } else if (n instanceof IR1.Load) {
+      IR1.Load i = (IR1.Load) n;
+      o.varint(LOAD);
+      src(i.dst, o, strings);
+      addr(i.addr, o, strings);
+    } else if (n instanceof IR1.Store) {
+      IR1.Store i = (IR1.Store) n;
+      o.varint(STORE);
+      addr(i.addr, o, strings);
+      src(i.src, o, strings);
+    } else if (n instanceof IR1.Call) {
+      IR1.Call i = (IR1.Call) n;
+      o.varint(CALL);
+      o.varint(str(i.gname.s, strings));
+      opt(i.rdst, o, strings);
+      o.varint(i.args.length);
+      for (IR1.Src a: i.args)
+	src(a, o, strings);
+    } else if (n instanceof IR1.Return) {
+      o.varint(RETURN);
+      opt(((IR1.Return) n).val, o, strings);
+    } else if (n instanceof IR1.CJump) {
+      IR1.CJump i = (IR1.CJump) n;
+      o.varint(CJUMP);
+      o.varint(i.op.ordinal());
+      src(i.src1, o, strings);
+      src(i.src2, o, strings);
+      o.varint(str(i.lab.name, strings));
+    } else if (n instanceof IR1.Jump) {
+      o.varint(JUMP);
+      o.varint(str(((IR1.Jump) n).lab.name, strings));
+    } else if (n instanceof IR1.LabelDec) {
+      o.varint(LABELDEC);
+      o.varint(str(((IR1.LabelDec) n).lab.name, strings));
+    } else {
+      throw new IllegalArgumentException("Illegal IR1 instruction: " + n);
+    }
+  }
+
+  static void addr(IR1.Addr a, Out o, Map<String,Integer> strings) {
+    o.zigzag(a.offset);
+    src(a.base, o, strings);
+  }
+
+  // An optional operand: 0 for none, else the operand's code + 1
+  static void opt(Object v, Out o, Map<String,Integer> strings) {
+    o.varint(v == null ? 0 : code(v, strings) + 1);
+  }
+
+  static void src(Object v, Out o, Map<String,Integer> strings) {
+    o.varint(code(v, strings));
+  }
+
+  static long code(Object v, Map<String,Integer> strings) {
+    if (v instanceof IR1.Id)
+      return ((long) str(((IR1.Id) v).s, strings) << 3) | ID;
+    if (v instanceof IR1.Temp)
+      return ((long) ((IR1.Temp) v).num << 3) | TEMP;
+    if (v instanceof IR1.IntLit) {
+      int i = ((IR1.IntLit) v).i;
+      return ((((long) (i << 1) ^ (i >> 31)) & 0xffffffffL) << 3) | INTLIT;
+    }
+    if (v instanceof IR1.BoolLit)
+      return ((((IR1.BoolLit) v).b ? 1L : 0L) << 3) | BOOLLIT;
+    if (v instanceof IR1.StrLit)
+      return ((long) str(((IR1.StrLit) v).s, strings) << 3) | STRLIT;
+    throw new IllegalArgumentException("Illegal IR1 operand: " + v);
+  }
+
+  static int str(String s, Map<String,Integer> strings) {
+    Integer i = strings.get(s);
+    if (i == null) {
+      i = strings.size();
+      strings.put(s, i);
+    }
+    return i;
+  }
+
+  // Reader
+  //----------------------------------------------------------------------
+
+  final ByteBuffer buf;
+  final String[] strings;
+  final IR1.Id[] ids;		// shared Id per string (Ids are immutable)
+  final int[] offsets;		// each function's start
+
+  IR1Binary(ByteBuffer buf) throws IOException {
+    this.buf = buf;
+    for (byte m: MAGIC)
+      if (buf.get() != m)
+	throw malformed("not an IR1 binary file");
+    int version = (int) varint();
+    if (version != VERSION)
+      throw malformed("unsupported version " + version);
+    strings = new String[count()];
+    byte[] b = new byte[64];
+    for (int i = 0; i < strings.length; i++) {
+      int len = count();
+      if (len > b.length)
+	b = new byte[len];
+      buf.get(b, 0, len);
+      strings[i] = new String(b, 0, len, StandardCharsets.UTF_8);
+    }
+    ids = new IR1.Id[strings.length];
+    offsets = new int[count()];
+    for (int i = 0; i < offsets.length; i++)
+      offsets[i] = buf.getInt();
+  }
+
+  public static IR1.Program read(String file) throws IOException {
+    RandomAccessFile f = new RandomAccessFile(file, "r");
+    try {
+      FileChannel ch = f.getChannel();
+      if (ch.size() > Integer.MAX_VALUE)
+	throw new IOException("Input too large to map: " + ch.size() + " bytes");
+      return read(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+    } finally {
+      f.close();
+    }
+  }
+
+  public static IR1.Program read(ByteBuffer buf) throws IOException {
+    try {
+      IR1Binary r = new IR1Binary(buf.order(java.nio.ByteOrder.LITTLE_ENDIAN));
+      IR1.Func[] funcs = new IR1.Func[r.offsets.length];
+      for (int i = 0; i < funcs.length; i++)
+	funcs[i] = r.func(i);
+      return new IR1.Program(funcs);
+    } catch (java.nio.BufferUnderflowException e) {
+      throw malformed("truncated");
+    } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+      throw malformed(e.toString());
+    }
+  }
+
+  // Decode the i-th function
+  IR1.Func func(int i) throws IOException {
+    buf.position(offsets[i]);
+    IR1.Global gname = new IR1.Global(string());
+    IR1.Id[] params = new IR1.Id[count()];
+    for (int k = 0; k < params.length; k++)
+      params[k] = id((int) varint());
+    IR1.Id[] locals = new IR1.Id[count()];
+    for (int k = 0; k < locals.length; k++)
+      locals[k] = id((int) varint());
+    IR1.Inst[] code = new IR1.Inst[count()];
+    for (int k = 0; k < code.length; k++)
+      code[k] = inst();
+    return new IR1.Func(gname, params, locals, code);
+  }
+
+  IR1.Inst inst() throws IOException {
+    int op = (int) varint();
+    switch (op) {
+    case BINOP: {
+      int o = (int) varint();
+      IR1.BOP bop = (o < aops.length) ? aops[o] : rops[o - aops.length];
+      IR1.Dest dst = dest();
+      IR1.Src src1 = src();
+      return new IR1.Binop(bop, dst, src1, src());
+    }
+    case UNOP: {
+      IR1.UOP uop = uops[(int) varint()];
+      IR1.Dest dst = dest();
+      return new IR1.Unop(uop, dst, src());
+    }
+    case MOVE: {
+      IR1.Dest dst = dest();
+      return new IR1.Move(dst, src());
+    }
+    case LOAD: {
+      IR1.Dest dst = dest();
+      return new IR1.Load(dst, addr());
+    }
+    case STORE: {
+      IR1.Addr addr = addr();
+      return new IR1.Store(addr, src());
+    }
+    case CALL: {
+      IR1.Global gname = new IR1.Global(string());
+      long d = varint();
+      IR1.Dest rdst = (d == 0) ? null : dest(d - 1);
+      IR1.Src[] args = new IR1.Src[count()];
+      for (int k = 0; k < args.length; k++)
+	args[k] = src();
+      return new IR1.Call(gname, args, rdst);
+    }
+    case RETURN: {
+      long v = varint();
+      return (v == 0) ? new IR1.Return() : new IR1.Return(src(v - 1));
+    }
+    case CJUMP: {
+      IR1.ROP rop = rops[(int) varint()];
+      IR1.Src src1 = src();
+      IR1.Src src2 = src();
+      return new IR1.CJump(rop, src1, src2, new IR1.Label(string()));
+    }
+    case JUMP:
+      return new IR1.Jump(new IR1.Label(string()));
+    case LABELDEC:
+      return new IR1.LabelDec(new IR1.Label(string()));
+    default:
+      throw malformed("bad opcode " + op + " at offset " + (buf.position() - 1));
+    }
+  }
+
+  IR1.Addr addr() throws IOException {
+    int offset = unzigzag(varint());
+    return new IR1.Addr(src(), offset);
+  }
+
+  IR1.Src src() throws IOException {
+    return src(varint());
+  }
+
+  IR1.Src src(long code) throws IOException {
+    return (IR1.Src) operand(code);	// (every operand is a Src)
+  }
+
+  IR1.Dest dest() throws IOException {
+    return dest(varint());
+  }
+
+  IR1.Dest dest(long code) throws IOException {
+    Object v = operand(code);
+    if (!(v instanceof IR1.Dest))
+      throw malformed("not a Dest: " + v);
+    return (IR1.Dest) v;
+  }
+
+  Object operand(long code) throws IOException {
+    long v = code >>> 3;
+    switch ((int) (code & 7)) {
+    case ID:      return id((int) v);
+    case TEMP:    return new IR1.Temp((int) v);
+    case INTLIT:  return new IR1.IntLit(unzigzag(v));
+    case BOOLLIT: return (v != 0) ? IR1.TRUE : IR1.FALSE;
+    case STRLIT:  return new IR1.StrLit(strings[(int) v]);
+    default:      throw malformed("bad operand tag " + (code & 7));
+    }
+  }
+
+  IR1.Id id(int i) {
+    IR1.Id id = ids[i];
+    if (id == null)
+      id = ids[i] = new IR1.Id(strings[i]);
+    return id;
+  }
+
+  String string() {
+    return strings[(int) varint()];
+  }
+
+  int count() throws IOException {
+    long n = varint();
+    if (n > buf.remaining())
+      throw malformed("bad count " + n);
+    return (int) n;
+  }
+
+  long varint() {
+    long v = 0;
+    for (int shift = 0; ; shift += 7) {
+      byte b = buf.get();
+      v |= (long) (b & 0x7f) << shift;
+      if (b >= 0)
+	return v;
+    }
+  }
+
+  static int unzigzag(long v) {
+    int u = (int) v;
+    return (u >>> 1) ^ -(u & 1);
+  }
+
+  static IOException malformed(String why) {
+    return new IOException("Malformed IR1 binary: " + why);
+  }
+}
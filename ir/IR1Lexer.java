@@ -0,0 +1,318 @@
+// This is supporting software for CS321/CS322 Compilers and Language Design.
+// Copyright (c) Portland State University
+//---------------------------------------------------------------------------
+// For CS322 W'16 (J. Li).
+//
+
+// Hand-written lexer for IR1. (Alternative to IR1ParserTokenManager)
+//
+// Recognizes the token set in IR1ParserConstants over a byte buffer
+// (normally a memory-mapped .ir file):
+//
+// - every byte is first mapped to a character class, and a switch on
+//   the class of a token's first byte picks the scanning loop;
+// - fixed-spelling tokens (keywords, punctuation, "true"/"false") are
+//   handed out from small per-kind rings of preallocated Tokens, whose
+//   image is the shared literal spelling;
+// - IntLit and Temp tokens carry their value as an int (NumToken) and
+//   build no image String unless an error message needs one.
+//
+// A ring slot is reissued only after RING-1 more tokens of its kind,
+// far beyond the parser's lookahead, so the token chain the parser
+// walks never sees a reused Token.
+//
+// Usage:
+//   new IR1Parser(IR1Lexer.open(file))
+//
+package ir;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+public class IR1Lexer extends IR1ParserTokenManager {
+
+  // Byte classes
+  static final byte ERR=0, SPACE=1, NL=2, LETTER=3, DIGIT=4, UNDER=5,
+    QUOTE=6, HASH=7, PUNCT=8, PAIR=9;
+  static final byte[] cls = new byte[256];
+
+  // Token kind of single-char punctuation, and of the two-char form
+  // ("==", "<=", "&&", ...) when the second char is pairNext
+  static final int[] single = new int[128];
+  static final int[] pair = new int[128];
+  static final char[] pairNext = new char[128];
+
+  static {
+    for (char c = 'a'; c <= 'z'; c++) cls[c] = LETTER;
+    for (char c = 'A'; c <= 'Z'; c++) cls[c] = LETTER;
+    for (char c = '0'; c <= '9'; c++) cls[c] = DIGIT;
+    cls['_'] = UNDER; cls['"'] = QUOTE; cls['#'] = HASH; cls['\n'] = NL;
+    cls[' '] = cls['\t'] = cls['\r'] = SPACE;
+    String punct = "{}(,):[]+-*/";
+    int[] kinds = {18, 19, 20, 21, 22, 24, 25, 26, 27, 28, 29, 30};
+    for (int i = 0; i < punct.length(); i++) {
+      cls[punct.charAt(i)] = PUNCT;
+      single[punct.charAt(i)] = kinds[i];
+    }
+    // first char, second char, kind alone (-1: none), kind of pair
+    pairDef('=', '=', 23, 33);
+    pairDef('!', '=', 39, 34);
+    pairDef('<', '=', 35, 36);
+    pairDef('>', '=', 37, 38);
+    pairDef('&', '&', -1, 31);
+    pairDef('|', '|', -1, 32);
+  }
+
+  static void pairDef(char c, char next, int alone, int both) {
+    cls[c] = PAIR; single[c] = alone; pair[c] = both; pairNext[c] = next;
+  }
+
+  // Keywords and boolean literals, by spelling
+  static final String[] words = {"goto", "if", "call", "return", "true", "false"};
+  static final int[] wordKinds = {5, 6, 7, 8, BoolLit, BoolLit};
+
+  // Number-carrying token for IntLit and Temp
+  public static class NumToken extends Token {
+    private static final long serialVersionUID = 1L;
+    public final int value;
+
+    NumToken(int kind, int value) { this.kind = kind; this.value = value; }
+    public String toString() {
+      return image != null ? image : (kind == Temp ? "t" : "") + value;
+    }
+  }
+
+  static final int RING = 8;
+
+  private final ByteBuffer data;
+  private final int limit;
+  private int pos = 0;
+  private int line = 1;
+  private int lineStart = 0;		// offset of the current line
+  private int prevLineStart = 0;	// offset of the line before
+  private boolean lineHasTab = false;
+  private final Token[][] rings = new Token[tokenImage.length][];
+  private final int[] ringPos = new int[tokenImage.length];
+  private final Token[] wordTokens = new Token[words.length * RING];
+  private final int[] wordPos = new int[words.length];
+  private byte[] image = new byte[64];
+
+  public IR1Lexer(ByteBuffer data) {
+    super(null);
+    this.data = data;
+    this.limit = data.limit();
+  }
+
+  // Map a file; the mapping stays valid after the channel is closed
+  public static IR1Lexer open(String file) throws IOException {
+    RandomAccessFile f = new RandomAccessFile(file, "r");
+    try {
+      FileChannel ch = f.getChannel();
+      if (ch.size() > Integer.MAX_VALUE)
+	throw new IOException("Input too large to map: " + ch.size() + " bytes");
+      return new IR1Lexer(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+    } finally {
+      f.close();
+    }
+  }
+
+  public Token getNextToken() {
+    for (;;) {
+      if (pos >= limit)
+	return eof();
+      int start = pos;
+      int c = data.get(pos) & 0xff;
+      switch (cls[c]) {
+      case SPACE:
+	if (c == '\t') lineHasTab = true;
+	pos++;
+	continue;
+      case HASH:
+	while (pos < limit && data.get(pos) != '\n' && data.get(pos) != '\r')
+	  if (data.get(pos++) == '\t') lineHasTab = true;
+	continue;
+      case NL: {
+	Token t = fixed(17, start);
+	pos++;
+	line++;
+	prevLineStart = lineStart;
+	lineStart = pos;
+	lineHasTab = false;
+	return t;
+      }
+      case PUNCT:
+	pos++;
+	return fixed(single[c], start);
+      case PAIR:
+	pos++;
+	if (pos < limit && data.get(pos) == pairNext[c]) {
+	  pos++;
+	  return fixed(pair[c], start);
+	}
+	if (single[c] < 0)
+	  throw error(start + 1);
+	return fixed(single[c], start);
+      case DIGIT: {
+	long v = 0;
+	while (pos < limit && cls[data.get(pos) & 0xff] == DIGIT)
+	  v = digit(v, data.get(pos++));
+	return number(IntLit, v, start, start);
+      }
+      case QUOTE:
+	pos++;
+	while (pos < limit && data.get(pos) != '"' && data.get(pos) != '\n')
+	  if (data.get(pos++) == '\t') lineHasTab = true;
+	if (pos >= limit || data.get(pos) != '"')
+	  throw error(pos);
+	pos++;
+	return named(StrLit, start);
+      case UNDER:
+	pos++;
+	if (pos >= limit || cls[data.get(pos) & 0xff] != LETTER)
+	  throw error(pos);
+	while (pos < limit && isIdChar(data.get(pos)))
+	  pos++;
+	return named(Global, start);
+      case LETTER: {
+	pos++;
+	// t<digits> is a Temp unless more Id chars follow
+	if (c == 't' && pos < limit && cls[data.get(pos) & 0xff] == DIGIT) {
+	  long v = 0;
+	  int p = pos;
+	  while (p < limit && cls[data.get(p) & 0xff] == DIGIT)
+	    v = digit(v, data.get(p++));
+	  if (p >= limit || !isIdChar(data.get(p))) {
+	    pos = p;
+	    return number(Temp, v, start + 1, start);
+	  }
+	}
+	while (pos < limit && isIdChar(data.get(pos)))
+	  pos++;
+	int w = wordIndex(start, pos - start);
+	if (w >= 0)
+	  return word(w, start);
+	return named(Id, start);
+      }
+      default:
+	throw error(start);
+      }
+    }
+  }
+
+  // Accumulate a decimal digit, saturating once past int range
+  static long digit(long v, byte d) {
+    return (v > Integer.MAX_VALUE) ? v : v * 10 + (d - '0');
+  }
+
+  static boolean isIdChar(byte b) {
+    byte k = cls[b & 0xff];
+    return k == LETTER || k == DIGIT || k == UNDER;
+  }
+
+  // Index of the keyword or boolean spelled by the bytes, or -1
+  private int wordIndex(int start, int len) {
+    for (int i = 0; i < words.length; i++) {
+      String w = words[i];
+      if (w.length() != len)
+	continue;
+      int j = 0;
+      while (j < len && data.get(start + j) == w.charAt(j))
+	j++;
+      if (j == len)
+	return i;
+    }
+    return -1;
+  }
+
+  // Next token from the ring for a fixed-spelling kind
+  private Token fixed(int kind, int start) {
+    return position(ringToken(kind), start);
+  }
+
+  private Token ringToken(int kind) {
+    Token[] ring = rings[kind];
+    if (ring == null) {
+      ring = rings[kind] = new Token[RING];
+      for (int i = 0; i < RING; i++)
+	ring[i] = new Token(kind, jjstrLiteralImages[kind]);
+    }
+    Token t = ring[ringPos[kind]];
+    ringPos[kind] = (ringPos[kind] + 1) % RING;
+    t.next = null;
+    t.specialToken = null;
+    return t;
+  }
+
+  // The EOF token sits on the input's last char, as with SimpleCharStream
+  // (pos is limit here, past the last char, so not position(t, pos))
+  private Token eof() {
+    Token t = ringToken(EOF);
+    if (limit > 0 && lineStart == limit) {
+      t.beginLine = t.endLine = line - 1;
+      t.beginColumn = t.endColumn = limit - prevLineStart;
+    } else {
+      t.beginLine = t.endLine = line;
+      t.beginColumn = t.endColumn = (limit > 0) ? column(limit - 1) : 1;
+    }
+    return t;
+  }
+
+  private Token word(int w, int start) {
+    int k = w * RING + wordPos[w];
+    wordPos[w] = (wordPos[w] + 1) % RING;
+    Token t = wordTokens[k];
+    if (t == null)
+      t = wordTokens[k] = new Token(wordKinds[w], words[w]);
+    t.next = null;
+    t.specialToken = null;
+    return position(t, start);
+  }
+
+  private Token number(int kind, long v, int digits, int start) {
+    if (v > Integer.MAX_VALUE)
+      throw new NumberFormatException("For input string: \"" + text(digits, pos) + "\"");
+    return position(new NumToken(kind, (int) v), start);
+  }
+
+  private Token named(int kind, int start) {
+    return position(new Token(kind, text(start, pos)), start);
+  }
+
+  private String text(int from, int to) {
+    int len = to - from;
+    if (len > image.length)
+      image = new byte[Math.max(len, image.length * 2)];
+    for (int i = 0; i < len; i++)
+      image[i] = data.get(from + i);
+    return new String(image, 0, len, StandardCharsets.ISO_8859_1);
+  }
+
+  // Tokens never span lines, so positions come from the current line
+  private Token position(Token t, int start) {
+    t.beginLine = t.endLine = line;
+    t.beginColumn = column(start);
+    t.endColumn = (pos > start + 1) ? column(pos - 1) : t.beginColumn;
+    return t;
+  }
+
+  private int column(int offset) {
+    if (!lineHasTab)
+      return offset - lineStart + 1;
+    int col = 0;
+    for (int i = lineStart; i <= offset; i++)
+      col += (data.get(i) == '\t') ? 8 - (col % 8) : 1;
+    return col;
+  }
+
+  private TokenMgrError error(int at) {
+    boolean eof = at >= limit;
+    char c = eof ? ' ' : (char) (data.get(at) & 0xff);
+    int col = eof ? column(limit - 1) + 1 : column(at);
+    int from = at;
+    while (from > lineStart && !Character.isWhitespace((char) data.get(from - 1)))
+      from--;
+    return new TokenMgrError(eof, 0, line, col, text(from, at), c,
+			     TokenMgrError.LEXICAL_ERROR);
+  }
+}
@@ -0,0 +1,192 @@
+// This is supporting software for CS321/CS322 Compilers and Language Design.
+// Copyright (c) Portland State University
+//---------------------------------------------------------------------------
+// For CS322 W'16 (J. Li).
+//
+
+// Memory-mapped input for the IR1 lexer.
+//
+// A drop-in SimpleCharStream that reads an (ASCII) .ir file straight
+// from a read-only mapping of the file. Nothing is copied except token
+// images, and reading a char does no line or column bookkeeping: the
+// token manager stores only each token's offsets (Token.beginOffset,
+// endOffset), and resolve() turns them into line and column numbers
+// when a ParseException needs them. The line index this takes is
+// built on the first such lookup, by one scan of the whole mapping.
+//
+// Usage:
+//   new IR1Parser(new IR1ParserTokenManager(MappedCharStream.open(file)))
+//
+package ir;
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class MappedCharStream extends SimpleCharStream {
+  private final MappedByteBuffer data;
+  private final int limit;
+  private int pos = 0; 		// offset of the next char to read
+  private int begin = 0;		// offset of the current token's first char
+  private int[] lineStarts;		// offset of each line's start (built lazily)
+  private int lines;			// lines in lineStarts
+  private byte[] image = new byte[64];	// scratch for token images
+
+  // adjustBeginLineColumn() calls: from offset adjOffset[k] on, lines
+  // are shifted by adjLine[k], and columns on that offset's own line by
+  // adjColumn[k]
+  private int[] adjOffset = new int[0], adjLine = new int[0], adjColumn = new int[0];
+
+  public MappedCharStream(FileChannel ch) throws IOException {
+    super((Reader) null, 1, 1, 1);
+    if (ch.size() > Integer.MAX_VALUE)
+      throw new IOException("Input too large to map: " + ch.size() + " bytes");
+    data = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+    limit = (int) ch.size();
+  }
+
+  // Map a file; the mapping stays valid after the channel is closed
+  public static MappedCharStream open(String file) throws IOException {
+    RandomAccessFile f = new RandomAccessFile(file, "r");
+    try {
+      return new MappedCharStream(f.getChannel());
+    } finally {
+      f.close();
+    }
+  }
+
+  public char BeginToken() throws IOException {
+    if (pos >= limit) {
+      begin = Math.max(pos - 1, 0);
+      throw new IOException();
+    }
+    begin = pos;
+    return readChar();
+  }
+
+  public char readChar() throws IOException {
+    if (pos >= limit)
+      throw new IOException();
+    return (char) (data.get(pos++) & 0xff);
+  }
+
+  public void backup(int amount) {
+    pos -= amount;
+  }
+
+  public String GetImage() {
+    int len = pos - begin;
+    if (len > image.length)
+      image = new byte[Math.max(len, image.length * 2)];
+    for (int i = 0; i < len; i++)
+      image[i] = data.get(begin + i);
+    return new String(image, 0, len, StandardCharsets.ISO_8859_1);
+  }
+
+  public char[] GetSuffix(int len) {
+    char[] ret = new char[len];
+    for (int i = 0; i < len; i++)
+      ret[i] = (char) (data.get(pos - len + i) & 0xff);
+    return ret;
+  }
+
+  // Offsets of the current token's first and last chars
+  public int getBeginOffset() { return begin; }
+  public int getEndOffset()   { return last(); }
+
+  public int getBeginLine()   { return lineAt(begin); }
+  public int getBeginColumn() { return columnAt(begin); }
+  public int getEndLine()     { return lineAt(last()); }
+  public int getEndColumn()   { return columnAt(last()); }
+  @Deprecated
+  public int getLine()        { return getEndLine(); }
+  @Deprecated
+  public int getColumn()      { return getEndColumn(); }
+
+  // Fill in the line and column numbers of a token read from this
+  // stream (one with offsets)
+  public void resolve(Token t) {
+    if (t == null || t.beginOffset < 0)
+      return;
+    t.beginLine = lineAt(t.beginOffset);
+    t.beginColumn = columnAt(t.beginOffset);
+    t.endLine = lineAt(t.endOffset);
+    t.endColumn = columnAt(t.endOffset);
+  }
+
+  public void Done() {}
+
+  // Renumber from the current token on: it starts at newLine, newCol;
+  // the rest of its line follows on from newCol, and later lines move
+  // by as many lines as it did
+  public void adjustBeginLineColumn(int newLine, int newCol) {
+    int k = adjOffset.length;
+    adjOffset = Arrays.copyOf(adjOffset, k + 1);
+    adjLine = Arrays.copyOf(adjLine, k + 1);
+    adjColumn = Arrays.copyOf(adjColumn, k + 1);
+    adjOffset[k] = begin;
+    adjLine[k] = newLine - (lineOf(begin) + 1);
+    adjColumn[k] = newCol - rawColumn(begin);
+  }
+
+  private int last() {
+    return Math.max(pos - 1, 0);
+  }
+
+  // Line (1-based) and column (1-based) of an offset, after any
+  // adjustBeginLineColumn()
+  private int lineAt(int offset) {
+    int k = adjustment(offset);
+    return lineOf(offset) + 1 + (k < 0 ? 0 : adjLine[k]);
+  }
+
+  private int columnAt(int offset) {
+    int k = adjustment(offset);
+    int col = rawColumn(offset);
+    if (k >= 0 && lineOf(adjOffset[k]) == lineOf(offset))
+      col += adjColumn[k];
+    return col;
+  }
+
+  // The last adjustment made at or before offset, or -1
+  private int adjustment(int offset) {
+    int k = adjOffset.length - 1;
+    while (k >= 0 && adjOffset[k] > offset)
+      k--;
+    return k;
+  }
+
+  // Line index (0-based) holding an offset
+  private int lineOf(int offset) {
+    if (lineStarts == null)
+      indexLines();
+    int l = Arrays.binarySearch(lineStarts, 0, lines, offset);
+    return (l < 0) ? -l - 2 : l;
+  }
+
+  private void indexLines() {
+    lineStarts = new int[256];
+    lines = 1;
+    for (int i = 0; i < limit; i++) {
+      byte c = data.get(i);
+      if (c == '\n' || (c == '\r' && (i + 1 >= limit || data.get(i + 1) != '\n'))) {
+	if (lines == lineStarts.length)
+	  lineStarts = Arrays.copyOf(lineStarts, lines * 2);
+	lineStarts[lines++] = i + 1;
+      }
+    }
+  }
+
+  // Column (1-based) of an offset, expanding tabs as SimpleCharStream does
+  private int rawColumn(int offset) {
+    int col = 0;
+    for (int i = lineStarts[lineOf(offset)]; i <= offset && i < limit; i++) {
+      if (data.get(i) == '\t')
+	col += tabSize - (col % tabSize);
+      else
+	col++;
+    }
+    return col;
+  }
+}
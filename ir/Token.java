@@ -30,6 +30,12 @@ public class Token implements java.io.Serializable {
   public int endLine;
   /** The column number of the last character of this Token. */
   public int endColumn;
+  /**
+   * The offsets of the first and last characters of this Token, for a
+   * Token whose line and column numbers are filled in only on demand
+   * (see MappedCharStream.resolve); -1 otherwise.
+   */
+  public int beginOffset = -1, endOffset = -1;
 
   /**
    * The string image of the token.